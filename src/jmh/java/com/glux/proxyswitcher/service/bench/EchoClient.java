@@ -0,0 +1,120 @@
+package com.glux.proxyswitcher.service.bench;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 通过代理端建立多条TCP连接，每次往返在所有连接上各发送一份payload并等待回显完整返回
+final class EchoClient implements AutoCloseable {
+
+    private static final long ROUND_TRIP_TIMEOUT_SECONDS = 60;
+
+    private final EventLoopGroup group = new NioEventLoopGroup();
+    private final Bootstrap bootstrap;
+    private final InetSocketAddress address;
+    private final List<Connection> connections = new ArrayList<>();
+
+    EchoClient(InetSocketAddress address, int connectionCount) throws InterruptedException {
+        this.address = address;
+        this.bootstrap = new Bootstrap().group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new Connection());
+                    }
+                });
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(open());
+        }
+    }
+
+    Connection open() throws InterruptedException {
+        Channel channel = bootstrap.connect(address).sync().channel();
+        return channel.pipeline().get(Connection.class);
+    }
+
+    void roundTrip(ByteBuf payload) throws Exception {
+        List<Future<Void>> futures = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            futures.add(connection.send(payload));
+        }
+        for (Future<Void> future : futures) {
+            if (!future.await(ROUND_TRIP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("回显超时");
+            }
+            // 隧道被重置或连接关闭时promise以失败结束，不能计为一次成功的往返
+            if (!future.isSuccess()) {
+                throw new IllegalStateException("回显失败", future.cause());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        group.shutdownGracefully();
+    }
+
+    static final class Connection extends ChannelInboundHandlerAdapter {
+        private Channel channel;
+        private Promise<Void> promise;
+        private long remaining;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+        }
+
+        Future<Void> send(ByteBuf payload) {
+            Promise<Void> p = channel.eventLoop().newPromise();
+            ByteBuf data = payload.retainedDuplicate();
+            channel.eventLoop().execute(() -> {
+                promise = p;
+                remaining = data.readableBytes();
+                channel.writeAndFlush(data);
+            });
+            return p;
+        }
+
+        void close() {
+            channel.close().syncUninterruptibly();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            remaining -= ((ByteBuf) msg).readableBytes();
+            ReferenceCountUtil.release(msg);
+            if (remaining <= 0 && promise != null) {
+                promise.trySuccess(null);
+                promise = null;
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (promise != null) {
+                promise.tryFailure(new IllegalStateException("连接已关闭"));
+            }
+        }
+    }
+}
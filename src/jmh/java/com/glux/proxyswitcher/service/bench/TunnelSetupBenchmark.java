@@ -0,0 +1,56 @@
+package com.glux.proxyswitcher.service.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 隧道建立成本：本地TCP接入 + 在已有QUIC连接上打开stream + 服务端连接目标，以第一个字节的回显为准
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-DlogLevel=error")
+public class TunnelSetupBenchmark {
+
+    private LocalTunnel fixture;
+    private EchoClient client;
+    private final ByteBuf probe = Unpooled.unreleasableBuffer(Unpooled.directBuffer(1).writeByte(1));
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new LocalTunnel(TargetSimulator.Mode.ECHO);
+        // 先打开一条隧道，让QUIC连接在测量前完成握手
+        client = new EchoClient(fixture.clientAddress(), 1);
+        client.roundTrip(probe);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public void openTunnel() throws Exception {
+        EchoClient.Connection connection = client.open();
+        try {
+            connection.send(probe).sync();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.glux.proxyswitcher.service.bench;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 一次操作 = 在streams条隧道上各完成一次payloadSize字节的回显往返
+// Throughput模式下 操作数 * streams * payloadSize 即吞吐量，SampleTime模式给出每次往返的延迟分布
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-DlogLevel=error")
+public class TunnelThroughputBenchmark {
+
+    @Param({"64", "1024", "16384", "1048576"})
+    public int payloadSize;
+
+    @Param({"1", "10", "100", "1000"})
+    public int streams;
+
+    private LocalTunnel fixture;
+    private EchoClient client;
+    private ByteBuf payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new LocalTunnel(TargetSimulator.Mode.ECHO);
+        client = new EchoClient(fixture.clientAddress(), streams);
+        byte[] bytes = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        payload = Unpooled.unreleasableBuffer(Unpooled.directBuffer(payloadSize).writeBytes(bytes));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public void roundTrip() throws Exception {
+        client.roundTrip(payload);
+    }
+}
@@ -0,0 +1,159 @@
+package com.glux.proxyswitcher.service.cert;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.incubator.codec.quic.InsecureQuicTokenHandler;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicClientCodecBuilder;
+import io.netty.incubator.codec.quic.QuicServerCodecBuilder;
+import io.netty.incubator.codec.quic.QuicSslContext;
+import io.netty.util.concurrent.Future;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// 各密钥类型的完整双向TLS握手吞吐。服务端只用一个EventLoop，每个基准线程同时发起BATCH个握手，
+// 服务端始终有握手在排队，结果约等于服务端每核每秒握手数，而不是单次握手的往返延迟。
+// 客户端SSLEngine不带对端地址，不会从会话缓存恢复，每次都是完整握手
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-DlogLevel=error")
+public class HandshakeBenchmark {
+
+    // 4个线程共32个并发握手已能占满服务端线程，再大时默认大小的UDP接收缓冲区会丢包，握手因重传超时
+    private static final int BATCH = 8;
+
+    @Param({"rsa", "ec"})
+    public String keyType;
+
+    private File dir;
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private Channel serverChannel;
+    private QuicSslContext clientContext;
+    private InetSocketAddress serverAddress;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // 不经过QuicProxyMain，在这里按logLevel设置日志级别，否则quiche逐包输出DEBUG日志
+        if (LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME) instanceof ch.qos.logback.classic.Logger root) {
+            root.setLevel(ch.qos.logback.classic.Level.toLevel(System.getProperty("logLevel", "error")));
+        }
+        dir = Files.createTempDirectory("handshake-" + keyType).toFile();
+        CertificateGenerator.generateCertificates(dir, CertificateGenerator.KeyType.parse(keyType),
+                "bench-ca", "localhost", "bench-client", 1);
+        QuicSslContext serverContext = CertificateUtil.createServerSslContext(dir);
+        clientContext = CertificateUtil.createClientSslContext(dir);
+
+        boolean epoll = Epoll.isAvailable();
+        serverGroup = epoll ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+        clientGroup = epoll ? new EpollEventLoopGroup(4) : new NioEventLoopGroup(4);
+        ChannelHandler noop = new ChannelInboundHandlerAdapter() {
+            @Override
+            public boolean isSharable() {
+                return true;
+            }
+        };
+        serverChannel = new Bootstrap().group(serverGroup)
+                .channel(epoll ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                .handler(new QuicServerCodecBuilder()
+                        .sslContext(serverContext)
+                        .maxIdleTimeout(5, TimeUnit.SECONDS)
+                        .initialMaxData(1024 * 1024)
+                        .initialMaxStreamsBidirectional(1)
+                        .tokenHandler(InsecureQuicTokenHandler.INSTANCE)
+                        .handler(noop)
+                        .streamHandler(noop)
+                        .build())
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        serverAddress = (InetSocketAddress) serverChannel.localAddress();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serverChannel.close();
+        serverGroup.shutdownGracefully();
+        clientGroup.shutdownGracefully();
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (Exception ignored) {
+        }
+    }
+
+    // 每个基准线程使用一个客户端UDP socket，多次握手共用
+    @State(Scope.Thread)
+    public static class ClientSocket {
+        Channel channel;
+
+        @Setup(Level.Trial)
+        public void setUp(HandshakeBenchmark benchmark) throws Exception {
+            channel = new Bootstrap().group(benchmark.clientGroup)
+                    .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                    .handler(new QuicClientCodecBuilder()
+                            .sslEngineProvider(q -> benchmark.clientContext.newEngine(q.alloc()))
+                            .maxIdleTimeout(5, TimeUnit.SECONDS)
+                            .initialMaxData(1024 * 1024)
+                            .build())
+                    .bind(0).sync().channel();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handshake(ClientSocket socket) throws Exception {
+        List<Future<QuicChannel>> connects = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            connects.add(QuicChannel.newBootstrap(socket.channel)
+                    .handler(new ChannelInboundHandlerAdapter())
+                    .remoteAddress(serverAddress)
+                    .connect());
+        }
+        for (Future<QuicChannel> connect : connects) {
+            connect.sync();
+        }
+        // 只发出关闭，不等待，关闭不计入握手开销
+        for (Future<QuicChannel> connect : connects) {
+            connect.getNow().close();
+        }
+    }
+}
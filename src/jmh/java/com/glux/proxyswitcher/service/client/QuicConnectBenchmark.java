@@ -0,0 +1,58 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.bench.LocalTunnel;
+import com.glux.proxyswitcher.service.bench.TargetSimulator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.incubator.codec.quic.QuicChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// QUIC连接建立成本：从绑定UDP socket到连接可以创建stream为止
+// 默认每次都是完整握手，用-jvmArgsAppend -Dquic.earlyData=true测量会话恢复(第一次之后)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-DlogLevel=error")
+public class QuicConnectBenchmark {
+
+    private LocalTunnel fixture;
+    private AutoConnectQuicConnection connection;
+    private EventLoopGroup group;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new LocalTunnel(TargetSimulator.Mode.ECHO);
+        connection = new AutoConnectQuicConnection(LocalTunnel.HOST, fixture.quicAddress().getPort());
+        group = Epoll.isAvailable() ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connection.close();
+        group.shutdownGracefully();
+        fixture.close();
+    }
+
+    @Benchmark
+    public void handshake() throws Exception {
+        QuicChannel channel = connection.connect(group.next(), c -> { }).sync().getNow();
+        channel.close().sync();
+    }
+}
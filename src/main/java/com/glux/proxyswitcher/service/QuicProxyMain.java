@@ -1,9 +1,14 @@
 package com.glux.proxyswitcher.service;
 
 import ch.qos.logback.classic.Level;
+import com.glux.proxyswitcher.service.bench.LoadGenerator;
+import com.glux.proxyswitcher.service.bench.LocalTunnel;
+import com.glux.proxyswitcher.service.bench.TargetSimulator;
 import com.glux.proxyswitcher.service.cert.CertificateGenerator;
 import com.glux.proxyswitcher.service.client.ProxyClient;
+import com.glux.proxyswitcher.service.metrics.MetricsServer;
 import com.glux.proxyswitcher.service.server.ProxyServer;
+import com.glux.proxyswitcher.service.server.ServerDrain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,14 +20,16 @@ public class QuicProxyMain {
         }
         Logger rootLogger = LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
         if (rootLogger instanceof ch.qos.logback.classic.Logger rl) {
-            String level = System.getProperty("logLevel", "trace");
+            // 压测时默认只输出警告，避免日志本身成为瓶颈
+            String level = System.getProperty("logLevel", args.length > 0 && "bench".equals(args[0]) ? "warn" : "trace");
             rl.setLevel(Level.toLevel(level));
         }
         if (args.length < 1) {
             System.out.println("用法:");
             System.out.println("  代理端: client <TCP监听地址> <TCP监听端口> <QUIC服务器地址> <QUIC服务器端口>");
             System.out.println("  服务端: server <QUIC监听地址> <QUIC监听端口> <目标服务器地址> <目标服务器端口>");
-            System.out.println("  服务端: cert");
+            System.out.println("  服务端: cert [rsa|ec]");
+            System.out.println("  压测: bench [echo|discard|sink]");
             return;
         }
 
@@ -40,8 +47,13 @@ public class QuicProxyMain {
 
             ProxyClient client = new ProxyClient(tcpHost, tcpPort, quicHost, quicPort);
             client.start();
+            MetricsServer metricsServer = new MetricsServer();
+            metricsServer.start();
 
-            Runtime.getRuntime().addShutdownHook(new Thread(client::stop));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                client.stop();
+                metricsServer.stop();
+            }));
             Thread.currentThread().join();
 
         } else if ("server".equals(mode)) {
@@ -57,12 +69,35 @@ public class QuicProxyMain {
 
             ProxyServer server = new ProxyServer(quicHost, quicPort, targetHost, targetPort);
             server.start();
+            MetricsServer metricsServer = new MetricsServer();
+            metricsServer.start();
 
-            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            // 收到SIGTERM后先排空再退出
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.drain(ServerDrain.DRAIN_SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                server.stop();
+                metricsServer.stop();
+            }));
             Thread.currentThread().join();
 
+        } else if ("bench".equals(mode)) {
+            TargetSimulator.Mode targetMode = TargetSimulator.Mode.parse(args.length > 1 ? args[1] : "echo");
+            LoadGenerator.Config config = LoadGenerator.Config.fromSystemProperties(targetMode);
+            MetricsServer metricsServer = new MetricsServer();
+            metricsServer.start();
+            try (LocalTunnel tunnel = new LocalTunnel(targetMode)) {
+                new LoadGenerator(config, tunnel.clientAddress()).run(System.out).print(System.out);
+            } finally {
+                metricsServer.stop();
+            }
+
         } else if ("cert".equals(mode)) {
-            CertificateGenerator.generateCertificates("Microsoft", "auth.azure.com", "u1082983.azure.com");
+            CertificateGenerator.generateCertificates(args.length > 1
+                    ? CertificateGenerator.KeyType.parse(args[1]) : CertificateGenerator.KEY_TYPE);
         } else {
             System.out.println("未知模式: " + mode);
         }
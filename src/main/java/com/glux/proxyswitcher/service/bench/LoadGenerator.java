@@ -0,0 +1,357 @@
+package com.glux.proxyswitcher.service.bench;
+
+import com.glux.proxyswitcher.service.common.CongestionControlProfile;
+import com.glux.proxyswitcher.service.common.ImpairmentHandler;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// 通过代理端维持N条并发TCP连接，按设定的速率建立连接、按分布发送payload，连接到达生命周期后关闭并由新连接替换
+public final class LoadGenerator {
+
+    private static final long OPEN_TICK_MILLIS = 10;
+
+    public record Config(TargetSimulator.Mode mode, int connections, double openRate, PayloadDistribution payload,
+                         long lifetimeMillis, long warmupMillis, long durationMillis, long reportIntervalMillis) {
+
+        public static Config fromSystemProperties(TargetSimulator.Mode mode) {
+            return new Config(mode,
+                    Integer.getInteger("bench.connections", 100),
+                    Double.parseDouble(System.getProperty("bench.openRate", "0")),
+                    PayloadDistribution.parse(System.getProperty("bench.payload", "fixed:1024")),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("bench.lifetimeSeconds", 0)),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("bench.warmupSeconds", 5)),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("bench.durationSeconds", 60)),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("bench.reportIntervalSeconds", 10)));
+        }
+    }
+
+    private final Config config;
+    private final InetSocketAddress address;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    // 已建立和正在建立的连接数
+    private final AtomicInteger open = new AtomicInteger();
+
+    private final LatencyRecorder connectLatency = new LatencyRecorder();
+    private final LatencyRecorder roundTripLatency = new LatencyRecorder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder connectsOpened = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder unexpectedCloses = new LongAdder();
+
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+    // 只在openTask所在的EventLoop中访问
+    private double openAllowance;
+    private long lastOpenTick;
+
+    public LoadGenerator(Config config, InetSocketAddress address) {
+        this.config = config;
+        this.address = address;
+        boolean useEpoll = Epoll.isAvailable();
+        group = useEpoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+        bootstrap = new Bootstrap().group(group)
+                .channel(useEpoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        channels.add(ch);
+                        ch.pipeline().addLast(new Session(System.nanoTime()));
+                    }
+                });
+    }
+
+    public Result run(PrintStream out) throws InterruptedException {
+        lastOpenTick = System.nanoTime();
+        ScheduledFuture<?> openTask = group.next().scheduleAtFixedRate(this::openDue,
+                0, OPEN_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            if (config.warmupMillis() > 0) {
+                out.printf("预热 %d 秒...%n", TimeUnit.MILLISECONDS.toSeconds(config.warmupMillis()));
+                Thread.sleep(config.warmupMillis());
+            }
+            Snapshot start = new Snapshot();
+            measuring = true;
+            Snapshot last = start;
+            long deadline = start.nanos + TimeUnit.MILLISECONDS.toNanos(config.durationMillis());
+            long interval = config.reportIntervalMillis() > 0 ? config.reportIntervalMillis() : config.durationMillis();
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                Thread.sleep(Math.min(interval, remaining));
+                Snapshot now = new Snapshot();
+                out.printf("[%4ds] 连接 %d, 吞吐 %.1f MB/s, 往返 %d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now.nanos - start.nanos), open.get(),
+                        (now.bytes - last.bytes) / 1e6 / ((now.nanos - last.nanos) / 1e9), roundTripLatency.count());
+                last = now;
+            }
+            measuring = false;
+            return new Result(config, start, new Snapshot(), connectLatency, roundTripLatency,
+                    connectsOpened.sum(), connectFailures.sum(), unexpectedCloses.sum());
+        } finally {
+            stopping = true;
+            openTask.cancel(false);
+            channels.close().awaitUninterruptibly();
+            group.shutdownGracefully();
+        }
+    }
+
+    // openRate<=0时立即补足连接数，否则按速率发放额度，被关闭的连接也通过这里替换
+    private void openDue() {
+        long now = System.nanoTime();
+        int missing = config.connections() - open.get();
+        if (config.openRate() <= 0) {
+            openAllowance = missing;
+        } else {
+            openAllowance = Math.min(config.connections(),
+                    openAllowance + config.openRate() * (now - lastOpenTick) / 1e9);
+        }
+        lastOpenTick = now;
+        while (openAllowance >= 1 && missing > 0 && !stopping) {
+            openAllowance--;
+            missing--;
+            open.incrementAndGet();
+            bootstrap.connect(address).addListener(f -> {
+                if (!f.isSuccess()) {
+                    open.decrementAndGet();
+                    if (measuring) {
+                        connectFailures.increment();
+                    }
+                }
+            });
+        }
+    }
+
+    private final class Session extends ChannelInboundHandlerAdapter {
+        private final long connectStart;
+        private long activeAt;
+        private boolean firstByte;
+        private boolean closing;
+        // ECHO模式下当前payload还未收回的字节数和发送时间
+        private long echoRemaining;
+        private long sentAt;
+
+        Session(long connectStart) {
+            this.connectStart = connectStart;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            activeAt = System.nanoTime();
+            if (measuring) {
+                connectsOpened.increment();
+            }
+            switch (config.mode()) {
+                case ECHO -> sendNext(ctx);
+                // 没有回包，连接时间只能按TCP连接到代理端计算
+                case DISCARD -> {
+                    recordConnect(activeAt);
+                    fill(ctx);
+                }
+                // 有的代理端口(例如需要识别协议的端口)收到数据后才打开隧道和目标连接，先发送一个字节作为开始标记。
+                // 目标丢弃收到的数据，标记不计入发送字节数
+                case SINK -> ctx.writeAndFlush(ctx.alloc().buffer(1).writeByte(0));
+            }
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            long now = System.nanoTime();
+            int size = ((ByteBuf) msg).readableBytes();
+            ReferenceCountUtil.release(msg);
+            if (!firstByte) {
+                firstByte = true;
+                if (config.mode() != TargetSimulator.Mode.DISCARD) {
+                    recordConnect(now);
+                }
+            }
+            if (measuring) {
+                bytesReceived.add(size);
+            }
+            if (config.mode() == TargetSimulator.Mode.ECHO) {
+                echoRemaining -= size;
+                if (echoRemaining <= 0) {
+                    if (measuring) {
+                        roundTripLatency.record(now - sentAt);
+                    }
+                    sendNext(ctx);
+                }
+            } else if (expired(now)) {
+                close(ctx);
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (config.mode() == TargetSimulator.Mode.DISCARD) {
+                fill(ctx);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            open.decrementAndGet();
+            if (!closing && !stopping && measuring) {
+                unexpectedCloses.increment();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        private void sendNext(ChannelHandlerContext ctx) {
+            if (expired(System.nanoTime())) {
+                close(ctx);
+                return;
+            }
+            int size = config.payload().next(ThreadLocalRandom.current());
+            echoRemaining = size;
+            sentAt = System.nanoTime();
+            write(ctx, size);
+            ctx.flush();
+        }
+
+        private void fill(ChannelHandlerContext ctx) {
+            Channel channel = ctx.channel();
+            while (channel.isActive() && channel.isWritable()) {
+                if (expired(System.nanoTime())) {
+                    close(ctx);
+                    return;
+                }
+                write(ctx, config.payload().next(ThreadLocalRandom.current()));
+            }
+            ctx.flush();
+        }
+
+        private void write(ChannelHandlerContext ctx, int size) {
+            ctx.write(ctx.alloc().buffer(size).writeZero(size));
+            if (measuring) {
+                bytesSent.add(size);
+            }
+        }
+
+        private void recordConnect(long now) {
+            if (measuring) {
+                connectLatency.record(now - connectStart);
+            }
+        }
+
+        private boolean expired(long now) {
+            return stopping || config.lifetimeMillis() > 0
+                    && now - activeAt >= TimeUnit.MILLISECONDS.toNanos(config.lifetimeMillis());
+        }
+
+        private void close(ChannelHandlerContext ctx) {
+            closing = true;
+            ctx.close();
+        }
+    }
+
+    private final class Snapshot {
+        final long nanos = System.nanoTime();
+        final long cpuNanos = processCpuNanos();
+        final long sent = bytesSent.sum();
+        final long received = bytesReceived.sum();
+        final long bytes = sent + received;
+    }
+
+    // 进程CPU时间，包括负载端、目标模拟器和代理两端，JVM不支持时返回-1
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    public static final class Result {
+        private final Config config;
+        private final double seconds;
+        private final long sent;
+        private final long received;
+        private final long cpuNanos;
+        private final LatencyRecorder connectLatency;
+        private final LatencyRecorder roundTripLatency;
+        private final long connectsOpened;
+        private final long connectFailures;
+        private final long unexpectedCloses;
+
+        private Result(Config config, Snapshot start, Snapshot end, LatencyRecorder connectLatency,
+                       LatencyRecorder roundTripLatency, long connectsOpened, long connectFailures,
+                       long unexpectedCloses) {
+            this.config = config;
+            this.seconds = (end.nanos - start.nanos) / 1e9;
+            this.sent = end.sent - start.sent;
+            this.received = end.received - start.received;
+            this.cpuNanos = start.cpuNanos < 0 ? -1 : end.cpuNanos - start.cpuNanos;
+            this.connectLatency = connectLatency;
+            this.roundTripLatency = roundTripLatency;
+            this.connectsOpened = connectsOpened;
+            this.connectFailures = connectFailures;
+            this.unexpectedCloses = unexpectedCloses;
+        }
+
+        public void print(PrintStream out) {
+            long bytes = sent + received;
+            out.println();
+            out.printf("模式 %s, 连接数 %d, 建连速率 %s, payload %s, 生命周期 %s, 测量 %.1f 秒%n",
+                    config.mode().name().toLowerCase(Locale.ROOT), config.connections(),
+                    config.openRate() > 0 ? config.openRate() + "/s" : "不限",
+                    config.payload(), config.lifetimeMillis() > 0 ? config.lifetimeMillis() / 1000 + "s" : "不限",
+                    seconds);
+            out.printf("拥塞控制 %s, 网络损伤模拟 %s%n", CongestionControlProfile.describe(),
+                    ImpairmentHandler.enabled() ? "开启" : "关闭");
+            out.printf("新建连接 %d, 连接失败 %d, 异常断开 %d%n", connectsOpened, connectFailures, unexpectedCloses);
+            printLatency(out, config.mode() == TargetSimulator.Mode.DISCARD ? "TCP建连" : "建连到首字节",
+                    connectLatency);
+            if (config.mode() == TargetSimulator.Mode.ECHO) {
+                printLatency(out, "往返", roundTripLatency);
+            }
+            out.printf("吞吐 %.1f MB/s (发送 %.1f MB/s, 接收 %.1f MB/s)%n",
+                    bytes / 1e6 / seconds, sent / 1e6 / seconds, received / 1e6 / seconds);
+            if (cpuNanos >= 0) {
+                out.printf("CPU %.2f 核, %.2f CPU秒/GB (整个进程)%n", cpuNanos / 1e9 / seconds,
+                        bytes > 0 ? cpuNanos / 1e9 / (bytes / 1e9) : 0);
+            }
+        }
+
+        private static void printLatency(PrintStream out, String name, LatencyRecorder recorder) {
+            out.printf("%s(ms): n=%d p50=%.3f p99=%.3f p999=%.3f max=%.3f%n", name, recorder.count(),
+                    recorder.percentile(0.5) / 1e6, recorder.percentile(0.99) / 1e6,
+                    recorder.percentile(0.999) / 1e6, recorder.max() / 1e6);
+        }
+    }
+}
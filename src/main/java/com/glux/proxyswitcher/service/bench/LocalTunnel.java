@@ -0,0 +1,66 @@
+package com.glux.proxyswitcher.service.bench;
+
+import com.glux.proxyswitcher.service.cert.CertificateGenerator;
+import com.glux.proxyswitcher.service.cert.CertificateUtil;
+import com.glux.proxyswitcher.service.client.ProxyClient;
+import com.glux.proxyswitcher.service.server.ProxyServer;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+// 在同一进程中启动 目标模拟器 <- ProxyServer <- ProxyClient，全部走loopback
+public final class LocalTunnel implements AutoCloseable {
+
+    public static final String HOST = "127.0.0.1";
+
+    private final TargetSimulator target;
+    private final ProxyServer server;
+    private final ProxyClient client;
+    private final InetSocketAddress clientAddress;
+    private final InetSocketAddress quicAddress;
+
+    public LocalTunnel(TargetSimulator.Mode mode) throws Exception {
+        if (!CertificateUtil.CA_CERT.exists()) {
+            CertificateGenerator.generateCertificates();
+        }
+        InetSocketAddress targetAddress = new InetSocketAddress(HOST, freeTcpPort());
+        quicAddress = new InetSocketAddress(HOST, freeUdpPort());
+        clientAddress = new InetSocketAddress(HOST, freeTcpPort());
+
+        target = new TargetSimulator(mode, targetAddress);
+        server = new ProxyServer(HOST, quicAddress.getPort(), HOST, targetAddress.getPort());
+        server.start();
+        client = new ProxyClient(HOST, clientAddress.getPort(), HOST, quicAddress.getPort());
+        client.start();
+    }
+
+    // 负载端连接的代理端TCP地址
+    public InetSocketAddress clientAddress() {
+        return clientAddress;
+    }
+
+    public InetSocketAddress quicAddress() {
+        return quicAddress;
+    }
+
+    @Override
+    public void close() {
+        client.stop();
+        server.stop();
+        target.close();
+    }
+
+    private static int freeTcpPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int freeUdpPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
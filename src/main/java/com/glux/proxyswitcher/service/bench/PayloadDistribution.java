@@ -0,0 +1,72 @@
+package com.glux.proxyswitcher.service.bench;
+
+import java.util.Random;
+
+// 每次写入的payload大小分布，格式:
+//   fixed:<字节数>          固定大小
+//   uniform:<最小>-<最大>   均匀分布
+//   exp:<均值>              指数分布，大量小包夹杂少量大包，上限为均值的20倍
+public final class PayloadDistribution {
+
+    private enum Kind {FIXED, UNIFORM, EXP}
+
+    private final String spec;
+    private final Kind kind;
+    private final int a;
+    private final int b;
+
+    private PayloadDistribution(String spec, Kind kind, int a, int b) {
+        if (a < 1 || b < a) {
+            throw new IllegalArgumentException("payload分布参数错误: " + spec);
+        }
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static PayloadDistribution parse(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("payload分布格式错误: " + spec);
+        }
+        String type = spec.substring(0, colon);
+        String value = spec.substring(colon + 1);
+        switch (type) {
+            case "fixed" -> {
+                int size = Integer.parseInt(value);
+                return new PayloadDistribution(spec, Kind.FIXED, size, size);
+            }
+            case "uniform" -> {
+                int dash = value.indexOf('-');
+                if (dash < 0) {
+                    throw new IllegalArgumentException("payload分布格式错误: " + spec);
+                }
+                return new PayloadDistribution(spec, Kind.UNIFORM,
+                        Integer.parseInt(value.substring(0, dash)), Integer.parseInt(value.substring(dash + 1)));
+            }
+            case "exp" -> {
+                int mean = Integer.parseInt(value);
+                return new PayloadDistribution(spec, Kind.EXP, mean, mean * 20);
+            }
+            default -> throw new IllegalArgumentException("未知的payload分布: " + spec);
+        }
+    }
+
+    public int next(Random random) {
+        return switch (kind) {
+            case FIXED -> a;
+            case UNIFORM -> a + random.nextInt(b - a + 1);
+            case EXP -> (int) Math.min(b, Math.max(1, Math.round(-a * Math.log(1 - random.nextDouble()))));
+        };
+    }
+
+    public int max() {
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,131 @@
+package com.glux.proxyswitcher.service.bench;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+// 压测用的目标服务器，作为隧道的终点
+public final class TargetSimulator implements AutoCloseable {
+
+    public enum Mode {
+        // 原样回显，测量往返延迟
+        ECHO,
+        // 丢弃收到的数据，测量上行吞吐
+        DISCARD,
+        // 连接建立后持续发送数据，负载端只发送一个开始标记字节，测量下行吞吐
+        SINK;
+
+        public static Mode parse(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final ByteBuf SINK_CHUNK = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(16 * 1024).writeZero(16 * 1024));
+
+    private final EventLoopGroup group;
+    private final Channel channel;
+
+    public TargetSimulator(Mode mode, InetSocketAddress address) throws InterruptedException {
+        boolean useEpoll = Epoll.isAvailable();
+        group = useEpoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+        channel = new ServerBootstrap().group(group)
+                .channel(useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .childHandler(switch (mode) {
+                    case ECHO -> new EchoHandler();
+                    case DISCARD -> new DiscardHandler();
+                    case SINK -> new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new SinkHandler());
+                        }
+                    };
+                })
+                .bind(address).sync().channel();
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+        group.shutdownGracefully();
+    }
+
+    @ChannelHandler.Sharable
+    private static final class EchoHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class DiscardHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+    // 写缓冲低于高水位时持续写入，恢复可写后继续
+    private static final class SinkHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            fill(ctx);
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            fill(ctx);
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        private static void fill(ChannelHandlerContext ctx) {
+            Channel channel = ctx.channel();
+            while (channel.isActive() && channel.isWritable()) {
+                ctx.write(SINK_CHUNK.duplicate());
+            }
+            ctx.flush();
+        }
+    }
+}
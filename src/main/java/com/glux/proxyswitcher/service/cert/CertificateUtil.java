@@ -2,67 +2,88 @@ package com.glux.proxyswitcher.service.cert;
 
 import io.netty.incubator.codec.quic.QuicSslContext;
 import io.netty.incubator.codec.quic.QuicSslContextBuilder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
 import java.io.File;
 import java.io.FileInputStream;
-import java.security.KeyStore;
-import java.security.cert.CertificateException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
 
 public class CertificateUtil {
-    private static final Logger logger = LoggerFactory.getLogger(CertificateUtil.class);
+
+    // 启用TLS会话恢复的0-RTT early data。0-RTT数据可能被攻击者截获后重放给服务端，
+    // 隧道的第一批数据(例如非幂等的请求)会被目标执行多次，因此默认关闭
+    public static final boolean EARLY_DATA = Boolean.parseBoolean(System.getProperty("quic.earlyData", "false"));
+
+    public static final File CERT_DIR = new File(System.getProperty("quic.cert.dir", "certs"));
+    public static final File CA_CERT = new File(CERT_DIR, "ca-cert.pem");
+    public static final File SERVER_KEY = new File(CERT_DIR, "server-key.pem");
+    public static final File SERVER_CERT = new File(CERT_DIR, "server-cert.pem");
+    public static final File CLIENT_KEY = new File(CERT_DIR, "client-key.pem");
+    public static final File CLIENT_CERT = new File(CERT_DIR, "client-cert.pem");
+
+    // 构建各端context用到的文件，SslContextProvider据此检查是否需要重新加载
+    public static final List<File> SERVER_FILES = List.of(CA_CERT, SERVER_KEY, SERVER_CERT);
+    public static final List<File> CLIENT_FILES = List.of(CA_CERT, CLIENT_KEY, CLIENT_CERT);
+
+    // CertificateGenerator可以生成的私钥类型
+    private static final String[] KEY_ALGORITHMS = {"EC", "RSA"};
 
     public static QuicSslContext createServerSslContext() throws Exception {
-        return QuicSslContextBuilder.forServer(
-                        new File("certs/server-key.pem"),
-                        null,
-                        new File("certs/server-cert.pem"))
-                .trustManager(new File("certs/ca-cert.pem"))
+        return createServerSslContext(CERT_DIR);
+    }
+
+    public static QuicSslContext createServerSslContext(File dir) throws Exception {
+        return QuicSslContextBuilder.forServer(readPrivateKey(new File(dir, "server-key.pem")), null,
+                        readCertificates(new File(dir, "server-cert.pem")))
+                .trustManager(new File(dir, "ca-cert.pem"))
                 .clientAuth(io.netty.handler.ssl.ClientAuth.REQUIRE)
                 .applicationProtocols("http")
+                .earlyData(EARLY_DATA)
                 .build();
     }
 
     public static QuicSslContext createClientSslContext() throws Exception {
+        return createClientSslContext(CERT_DIR);
+    }
 
-        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        trustStore.load(null, null);
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        trustStore.setCertificateEntry("ca", cf.generateCertificate(new FileInputStream("certs/ca-cert.pem")));
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(trustStore);
-        final X509TrustManager tm = (X509TrustManager)tmf.getTrustManagers()[0];
-
-        TrustManager ts = new X509TrustManager() {
-            private X509Certificate[] trustedCerts;
-            {
-                try {
-                    CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                    trustedCerts = new X509Certificate[]{(X509Certificate) cf.generateCertificate(new FileInputStream("certs/ca-cert.pem"))};
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                tm.checkClientTrusted(chain, authType);
-            }
-            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                tm.checkServerTrusted(chain, authType);
-            }
-            public X509Certificate[] getAcceptedIssuers() { return trustedCerts; }
-        };
-
+    public static QuicSslContext createClientSslContext(File dir) throws Exception {
         return QuicSslContextBuilder.forClient()
-                .keyManager(new File("certs/client-key.pem"),null,new File("certs/client-cert.pem"))
-                .trustManager(new File("certs/ca-cert.pem"))
+                .keyManager(readPrivateKey(new File(dir, "client-key.pem")), null,
+                        readCertificates(new File(dir, "client-cert.pem")))
+                .trustManager(new File(dir, "ca-cert.pem"))
                 .applicationProtocols("http")
+                .earlyData(EARLY_DATA)
                 .build();
     }
-}
\ No newline at end of file
+
+    // 私钥是PKCS#8格式，按CertificateGenerator可以生成的算法依次尝试
+    static PrivateKey readPrivateKey(File file) throws Exception {
+        String pem = Files.readString(file.toPath(), StandardCharsets.US_ASCII);
+        String base64 = pem.replaceAll("-----(BEGIN|END) PRIVATE KEY-----", "").replaceAll("\\s", "");
+        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64));
+        Exception last = null;
+        for (String algorithm : KEY_ALGORITHMS) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePrivate(spec);
+            } catch (Exception e) {
+                last = e;
+            }
+        }
+        throw new IllegalArgumentException("无法读取私钥: " + file, last);
+    }
+
+    static X509Certificate[] readCertificates(File file) throws Exception {
+        try (InputStream in = new FileInputStream(file)) {
+            return CertificateFactory.getInstance("X.509").generateCertificates(in)
+                    .toArray(new X509Certificate[0]);
+        }
+    }
+}
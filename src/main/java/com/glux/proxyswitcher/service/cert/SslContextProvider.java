@@ -0,0 +1,109 @@
+package com.glux.proxyswitcher.service.cert;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.incubator.codec.quic.QuicSslContext;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 缓存一端的QuicSslContext，新连接直接使用，不再重复读取和解析证书文件。
+// 定期检查证书文件，变化后重新构建并替换，已建立的连接继续使用创建时的SSLEngine。
+// 检查和解析PEM在单独的后台线程中进行，不占用QUIC EventLoop，新连接读取volatile字段得到构建好的context
+public class SslContextProvider {
+    private static final Logger logger = LoggerFactory.getLogger(SslContextProvider.class);
+
+    // 检查证书文件的间隔(秒)，0表示不检查
+    public static final long RELOAD_SECONDS = Long.getLong("quic.cert.reloadSeconds", 30);
+
+    // 进程内所有provider共用，守护线程，不影响进程退出
+    private static final ScheduledExecutorService RELOADER =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("cert-reload", true));
+
+    private final String side;
+    private final Callable<QuicSslContext> factory;
+    private final List<File> files;
+    private final Counter reloads;
+    private volatile QuicSslContext context;
+    // get()首次构建时写入，之后只在RELOADER线程中访问
+    private volatile String fingerprint;
+
+    private SslContextProvider(String side, Callable<QuicSslContext> factory, List<File> files) {
+        this.side = side;
+        this.factory = factory;
+        this.files = files;
+        this.reloads = ProxyMetrics.counter("proxy_cert_reloads_total", "Certificate reloads", "side", side);
+    }
+
+    public static SslContextProvider server() {
+        return new SslContextProvider("server", CertificateUtil::createServerSslContext, CertificateUtil.SERVER_FILES);
+    }
+
+    public static SslContextProvider client() {
+        return new SslContextProvider("client", CertificateUtil::createClientSslContext, CertificateUtil.CLIENT_FILES);
+    }
+
+    // 第一次调用时构建，构建失败时抛出异常，下次调用再试
+    public QuicSslContext get() throws Exception {
+        QuicSslContext current = context;
+        if (current == null) {
+            synchronized (this) {
+                current = context;
+                if (current == null) {
+                    String files = fingerprint();
+                    current = factory.call();
+                    fingerprint = files;
+                    context = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // get()成功之后使用，不会抛出异常
+    public QuicSslContext current() {
+        return context;
+    }
+
+    // 在后台线程中定期检查证书文件
+    public void watch() {
+        if (RELOAD_SECONDS > 0) {
+            RELOADER.scheduleWithFixedDelay(this::reloadIfChanged, RELOAD_SECONDS, RELOAD_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // 证书和私钥可能只替换了一半，构建失败时保留旧的context，下次检查再试。
+    // 只在RELOADER的单个线程中执行，不需要加锁
+    private void reloadIfChanged() {
+        if (context == null) {
+            return;
+        }
+        String current = fingerprint();
+        if (current.equals(fingerprint)) {
+            return;
+        }
+        try {
+            context = factory.call();
+            fingerprint = current;
+            reloads.increment();
+            logger.info("{}: certificates reloaded.", side);
+        } catch (Exception e) {
+            logger.warn("{}: certificate reload failed, keeping the previous context.", side, e);
+        }
+    }
+
+    private String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            sb.append(file.lastModified()).append(':').append(file.length()).append(';');
+        }
+        return sb.toString();
+    }
+}
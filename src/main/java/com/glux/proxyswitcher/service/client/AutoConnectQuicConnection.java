@@ -1,10 +1,22 @@
 package com.glux.proxyswitcher.service.client;
 
-import com.glux.proxyswitcher.service.cert.CertificateUtil;
+import com.glux.proxyswitcher.service.cert.SslContextProvider;
+import com.glux.proxyswitcher.service.common.CongestionControlProfile;
+import com.glux.proxyswitcher.service.common.FlowControlWindows;
+import com.glux.proxyswitcher.service.common.ImpairmentHandler;
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.common.UdpOffload;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import com.glux.proxyswitcher.service.metrics.QuicStatsTracker;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollDatagramChannel;
@@ -12,19 +24,41 @@ import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.incubator.codec.quic.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class AutoConnectQuicConnection {
+    private static final Logger logger = LoggerFactory.getLogger(AutoConnectQuicConnection.class);
 
-    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    // 两端使用同一个空闲超时，实际生效的是两端中较小的值
+    public static final int IDLE_TIMEOUT_SECONDS = Integer.getInteger("quic.idleTimeoutSeconds", 30);
+    // 保活间隔，0表示不发送。应小于空闲超时的一半，丢失一次保活也不会超时
+    public static final int KEEPALIVE_SECONDS = Integer.getInteger("quic.keepaliveSeconds", 10);
+    // 每个池中连接额外保持一条已完成握手的备用连接，当前连接关闭或stream额度用完时立即切换
+    public static final boolean HOT_STANDBY = Boolean.getBoolean("quic.hotStandby");
+    // 连接池大小，各连接分布在不同的EventLoop上
+    public static final int POOL_SIZE = Integer.getInteger("quic.poolSize", 1);
 
     private final String host;
     private final int port;
     private final String sniHostname;
-    private QuicChannel quicChannel;
+    private final List<PooledQuicConnection> connections = new ArrayList<>();
     private EventLoopGroup group;
+    // 所有连接共用一个SslContext，其中的会话缓存用于下一次连接的0-RTT恢复。证书更新后的第一次连接是完整握手
+    private final SslContextProvider sslContexts = SslContextProvider.client();
+    // 收到的UDP数据包交给receiver，由receiver负责释放
+    private volatile Consumer<ByteBuf> datagramReceiver;
 
     public AutoConnectQuicConnection(String host, int port) {
         this(host, port, host);
@@ -35,48 +69,166 @@ public class AutoConnectQuicConnection {
         this.port = port;
         this.sniHostname = sniHostname;
         this.group = Epoll.isAvailable() ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+        for (int i = 0; i < Math.max(1, POOL_SIZE); i++) {
+            connections.add(new PooledQuicConnection(this, group.next()));
+        }
+        ProxyMetrics.eventLoopGroup("client-quic", group);
+        sslContexts.watch();
     }
 
-    public QuicChannel getQuicChannel() {
-        if (quicChannel == null || !quicChannel.isActive()) {
-            connect();
-        }
-        return quicChannel;
+    // 服务端地址，按它记录已关闭连接测得的BDP
+    String target() {
+        return host + ":" + port;
     }
 
-    private void connect() {
+    // 服务端发来GOAWAY时在连接所在的EventLoop上调用onGoaway
+    Future<QuicChannel> connect(EventLoop eventLoop, Consumer<QuicChannel> onGoaway) {
+        QuicSslContext context;
         try {
-            QuicSslContext sslContext = CertificateUtil.createClientSslContext();
-            ChannelHandler codec = new QuicClientCodecBuilder()
-                    .sslContext(sslContext)
-                    .maxIdleTimeout(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                    .initialMaxData(10000000)
-                    .initialMaxStreamDataBidirectionalLocal(1000000)
-                    .initialMaxStreamDataBidirectionalRemote(1000000)
-                    .initialMaxStreamsBidirectional(1000)
-                    .build();
-
-            Bootstrap bs = new Bootstrap();
-            Channel channel = bs.group(group)
-                    .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class)
-                    .handler(codec)
-                    .bind(0).sync().channel();
-
-            quicChannel = QuicChannel.newBootstrap(channel)
-                    .handler(new ChannelInboundHandlerAdapter())
-                    .remoteAddress(new InetSocketAddress(sniHostname, port))
-                    .connect()
-                    .get();
+            context = sslContexts.get();
         } catch (Exception e) {
-            throw new RuntimeException("QUIC连接失败", e);
+            return eventLoop.newFailedFuture(new RuntimeException("QUIC连接失败", e));
         }
+        FlowControlWindows windows = FlowControlWindows.forNewConnection(QuicStatsTracker.CLIENT, target());
+        logger.debug("QUIC flow control windows for new connection: {}", windows);
+        ChannelHandler codec = CongestionControlProfile.apply(new QuicClientCodecBuilder())
+                // 按服务端地址创建SSLEngine，才能从会话缓存中找到可恢复的会话
+                .sslEngineProvider(q -> context.newEngine(q.alloc(), sniHostname, port))
+                .maxIdleTimeout(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .datagram(QuicDatagrams.RECV_QUEUE_LENGTH, QuicDatagrams.SEND_QUEUE_LENGTH)
+                .initialMaxData(windows.connection())
+                .initialMaxStreamDataBidirectionalLocal(windows.stream())
+                .initialMaxStreamDataBidirectionalRemote(windows.stream())
+                .initialMaxStreamsBidirectional(1000)
+                .build();
+
+        Promise<QuicChannel> promise = eventLoop.newPromise();
+        UdpOffload.configure(new Bootstrap()).group(eventLoop)
+                .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        if (ImpairmentHandler.enabled()) {
+                            ch.pipeline().addLast(new ImpairmentHandler());
+                        }
+                        ch.pipeline().addLast(codec);
+                    }
+                })
+                .bind(0)
+                .addListener((ChannelFutureListener) bindFuture -> {
+                    if (!bindFuture.isSuccess()) {
+                        promise.tryFailure(new RuntimeException("QUIC连接失败", bindFuture.cause()));
+                        return;
+                    }
+                    Channel channel = bindFuture.channel();
+                    logger.debug("Client: UDP offload {}", UdpOffload.report(channel, "client"));
+                    UdpOffload.apply(QuicChannel.newBootstrap(channel))
+                            .handler(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    // QuicChannel上读到的ByteBuf是DATAGRAM帧
+                                    if (msg instanceof ByteBuf datagram
+                                            && QuicDatagrams.type(datagram) == QuicDatagrams.GOAWAY) {
+                                        datagram.release();
+                                        onGoaway.accept((QuicChannel) ctx.channel());
+                                        return;
+                                    }
+                                    Consumer<ByteBuf> receiver = datagramReceiver;
+                                    if (receiver != null && msg instanceof ByteBuf datagram
+                                            && QuicDatagrams.isUdp(datagram)) {
+                                        receiver.accept(datagram);
+                                    } else {
+                                        ReferenceCountUtil.release(msg);
+                                    }
+                                }
+
+                                @Override
+                                public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                                    // 会话恢复成功时不必等握手完成，stream数据可以直接作为early data发送
+                                    if (evt instanceof SslEarlyDataReadyEvent) {
+                                        connected(channel, (QuicChannel) ctx.channel(), promise);
+                                    }
+                                    super.userEventTriggered(ctx, evt);
+                                }
+                            })
+                            .remoteAddress(new InetSocketAddress(sniHostname, port))
+                            .connect()
+                            .addListener(f -> {
+                                if (f.isSuccess()) {
+                                    connected(channel, (QuicChannel) f.getNow(), promise);
+                                } else {
+                                    channel.close();
+                                    promise.tryFailure(new RuntimeException("QUIC连接失败", f.cause()));
+                                }
+                            });
+                });
+        return promise;
     }
 
-    public QuicStreamChannel createStream(ChannelHandler handler) {
-        try {
-            return getQuicChannel().createStream(QuicStreamType.BIDIRECTIONAL, handler).get();
-        } catch (Exception e) {
-            throw new RuntimeException("创建QUIC流失败", e);
+    private static void connected(Channel channel, QuicChannel quicChannel, Promise<QuicChannel> promise) {
+        if (promise.trySuccess(quicChannel)) {
+            quicChannel.closeFuture().addListener(cf -> channel.close());
+        }
+    }
+
+    public Future<QuicStreamChannel> createStream(ChannelHandler handler, Promise<QuicStreamChannel> promise) {
+        List<PooledQuicConnection> candidates = leastLoaded();
+        // 有stream额度的连接优先，额度都用完时仍然逐个尝试，额度可能已经被对端更新
+        candidates.sort(Comparator.comparing(c -> !c.hasStreamCredit()));
+        createStream(candidates.iterator(), handler, promise, null);
+        return promise;
+    }
+
+    private void createStream(Iterator<PooledQuicConnection> candidates, ChannelHandler handler,
+                              Promise<QuicStreamChannel> promise, Throwable lastFailure) {
+        if (!candidates.hasNext()) {
+            promise.tryFailure(new RuntimeException("创建QUIC流失败", lastFailure));
+            return;
         }
+        createStream(candidates.next(), candidates, handler, promise);
+    }
+
+    private void createStream(PooledQuicConnection connection, Iterator<PooledQuicConnection> candidates,
+                              ChannelHandler handler, Promise<QuicStreamChannel> promise) {
+        connection.channel().addListener(cf -> {
+            if (!cf.isSuccess()) {
+                createStream(candidates, handler, promise, cf.cause());
+                return;
+            }
+            QuicChannel quicChannel = (QuicChannel) cf.getNow();
+            quicChannel.createStream(QuicStreamType.BIDIRECTIONAL, handler).addListener(sf -> {
+                if (sf.isSuccess()) {
+                    QuicStreamChannel streamChannel = (QuicStreamChannel) sf.getNow();
+                    connection.streamOpened(streamChannel);
+                    if (!promise.trySuccess(streamChannel)) {
+                        streamChannel.close();
+                    }
+                } else if (connection.streamCreditExhausted(quicChannel)) {
+                    // 已切换到备用连接，在同一个位置上重试
+                    createStream(connection, candidates, handler, promise);
+                } else {
+                    createStream(candidates, handler, promise, sf.cause());
+                }
+            });
+        });
+    }
+
+    public void datagramReceiver(Consumer<ByteBuf> receiver) {
+        this.datagramReceiver = receiver;
+    }
+
+    // UDP flow使用当前负载最低的连接，连接关闭前不再切换
+    public Future<QuicChannel> datagramChannel() {
+        return leastLoaded().get(0).channel();
+    }
+
+    public void close() {
+        group.shutdownGracefully();
+    }
+
+    private List<PooledQuicConnection> leastLoaded() {
+        List<PooledQuicConnection> sorted = new ArrayList<>(connections);
+        sorted.sort(Comparator.comparingDouble(PooledQuicConnection::load));
+        return sorted;
     }
-}
\ No newline at end of file
+}
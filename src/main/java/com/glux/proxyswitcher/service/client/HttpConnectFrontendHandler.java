@@ -0,0 +1,81 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+// HTTP CONNECT握手，只支持隧道方式，普通的HTTP代理请求返回405。与SOCKS5一样不等待目标连接结果直接回复200
+public class HttpConnectFrontendHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+    private static final HttpResponseStatus CONNECTION_ESTABLISHED =
+            new HttpResponseStatus(200, "Connection established");
+
+    private final AutoConnectQuicConnection connection;
+    private StreamHeader header;
+
+    public HttpConnectFrontendHandler(AutoConnectQuicConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+        if (msg.decoderResult().isFailure()) {
+            reject(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        if (msg instanceof HttpRequest request) {
+            if (!HttpMethod.CONNECT.equals(request.method())) {
+                reject(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED);
+                return;
+            }
+            try {
+                header = parseAuthority(request.uri());
+            } catch (IllegalArgumentException e) {
+                reject(ctx, HttpResponseStatus.BAD_REQUEST);
+                return;
+            }
+        }
+        // CONNECT请求没有body，解码器紧接着给出LastHttpContent，之后的数据属于隧道
+        if (msg instanceof LastHttpContent && header != null) {
+            ProxyMetrics.FRONTEND_HTTP_CONNECT_REQUESTS.increment();
+            ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, CONNECTION_ESTABLISHED));
+            ProxyProtocolDetector.startTunnel(ctx, connection, header, HttpServerCodec.class);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+
+    // host:port 或 [IPv6]:port
+    private static StreamHeader parseAuthority(String authority) {
+        int colon = authority.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("CONNECT目标缺少端口: " + authority);
+        }
+        String host = authority.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return StreamHeader.of(host, Integer.parseInt(authority.substring(colon + 1)));
+    }
+
+    private static void reject(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,213 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.CongestionControlProfile;
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.metrics.QuicStatsTracker;
+import io.netty.channel.EventLoop;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 连接池中的一条QUIC连接，固定在一个EventLoop上，并记录用于选择连接的负载数据
+class PooledQuicConnection {
+    private static final Logger logger = LoggerFactory.getLogger(PooledQuicConnection.class);
+
+    // 尚未拿到拥塞窗口数据时按初始窗口估算
+    private static final long INITIAL_CWND = CongestionControlProfile.INITIAL_CWND_PACKETS * 1350L;
+
+    // 备用连接建立失败、或连接刚建立就被关闭(例如服务端正在排空)后的重试间隔
+    private static final long RETRY_MILLIS = 1000;
+
+    private final AutoConnectQuicConnection owner;
+    private final EventLoop eventLoop;
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private volatile QuicChannel quicChannel;
+    private volatile QuicStatsTracker.Sample stats = new QuicStatsTracker.Sample();
+    // 以下只在eventLoop中访问。正在进行的握手，并发请求共用同一次握手
+    private Future<QuicChannel> connecting;
+    private QuicChannel standby;
+    private QuicStatsTracker.Sample standbyStats;
+    private boolean standbyConnecting;
+
+    PooledQuicConnection(AutoConnectQuicConnection owner, EventLoop eventLoop) {
+        this.owner = owner;
+        this.eventLoop = eventLoop;
+    }
+
+    Future<QuicChannel> channel() {
+        QuicChannel channel = quicChannel;
+        if (isUsable(channel)) {
+            return eventLoop.newSucceededFuture(channel);
+        }
+        Promise<QuicChannel> promise = eventLoop.newPromise();
+        if (eventLoop.inEventLoop()) {
+            connectOrJoin(promise);
+        } else {
+            eventLoop.execute(() -> connectOrJoin(promise));
+        }
+        return promise;
+    }
+
+    private void connectOrJoin(Promise<QuicChannel> promise) {
+        if (isUsable(quicChannel) || promoteStandby()) {
+            promise.trySuccess(quicChannel);
+            return;
+        }
+        Future<QuicChannel> handshake = connecting;
+        if (handshake == null) {
+            handshake = owner.connect(eventLoop, this::goaway);
+            connecting = handshake;
+            handshake.addListener(f -> {
+                connecting = null;
+                if (f.isSuccess()) {
+                    QuicChannel connected = (QuicChannel) f.getNow();
+                    activate(connected, track(connected));
+                }
+            });
+        }
+        handshake.addListener(f -> {
+            if (f.isSuccess()) {
+                promise.trySuccess((QuicChannel) f.getNow());
+            } else {
+                promise.tryFailure(f.cause());
+            }
+        });
+    }
+
+    // 0-RTT恢复时握手尚未完成，channel还不是active，但已经可以创建stream
+    private static boolean isUsable(QuicChannel channel) {
+        return channel != null && channel.isOpen();
+    }
+
+    private QuicStatsTracker.Sample track(QuicChannel channel) {
+        startKeepalive(channel);
+        return QuicStatsTracker.CLIENT.track(channel, owner.target());
+    }
+
+    private void activate(QuicChannel channel, QuicStatsTracker.Sample sample) {
+        stats = sample;
+        quicChannel = channel;
+        long activatedAt = System.nanoTime();
+        channel.closeFuture().addListener(f -> {
+            // 当前连接关闭时切换到备用连接，没有备用连接就立即在后台重连，不等下一个TCP连接到来时才握手
+            if (quicChannel == channel && !promoteStandby() && !eventLoop.isShuttingDown()) {
+                if (System.nanoTime() - activatedAt < TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS)) {
+                    eventLoop.schedule(() -> {
+                        channel();
+                    }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    channel();
+                }
+            }
+        });
+        ensureStandby();
+    }
+
+    private boolean promoteStandby() {
+        QuicChannel candidate = standby;
+        if (!isUsable(candidate)) {
+            return false;
+        }
+        standby = null;
+        activate(candidate, standbyStats);
+        return true;
+    }
+
+    private void ensureStandby() {
+        if (!AutoConnectQuicConnection.HOT_STANDBY || standbyConnecting || isUsable(standby)
+                || eventLoop.isShuttingDown()) {
+            return;
+        }
+        standbyConnecting = true;
+        owner.connect(eventLoop, this::goaway).addListener(f -> {
+            standbyConnecting = false;
+            if (!f.isSuccess()) {
+                if (!eventLoop.isShuttingDown()) {
+                    eventLoop.schedule(this::ensureStandby, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            QuicChannel connected = (QuicChannel) f.getNow();
+            standby = connected;
+            standbyStats = track(connected);
+            connected.closeFuture().addListener(cf -> {
+                if (standby == connected) {
+                    standby = null;
+                    ensureStandby();
+                }
+            });
+            if (!isUsable(quicChannel)) {
+                promoteStandby();
+            }
+        });
+    }
+
+    // 服务端开始排空：已有的stream继续使用原连接直到结束，新stream改用备用连接或在后台新建的连接
+    private void goaway(QuicChannel channel) {
+        if (channel == standby) {
+            standby = null;
+            channel.close();
+            ensureStandby();
+            return;
+        }
+        if (channel != quicChannel) {
+            return;
+        }
+        logger.info("Client: server is draining, moving new streams to another connection.");
+        if (!promoteStandby()) {
+            quicChannel = null;
+            channel();
+        }
+    }
+
+    // 定期发送DATAGRAM保活，已被替换下来的连接不再保活，其中的stream结束后按空闲超时关闭
+    private void startKeepalive(QuicChannel channel) {
+        long interval = AutoConnectQuicConnection.KEEPALIVE_SECONDS;
+        if (interval <= 0) {
+            return;
+        }
+        ScheduledFuture<?> task = eventLoop.scheduleAtFixedRate(() -> {
+            if (channel != quicChannel && channel != standby) {
+                return;
+            }
+            channel.writeAndFlush(QuicDatagrams.keepalive(channel.alloc())).addListener(f -> {
+                if (!f.isSuccess()) {
+                    logger.debug("Client: keepalive failed.", f.cause());
+                }
+            });
+        }, interval, interval, TimeUnit.SECONDS);
+        channel.closeFuture().addListener(f -> task.cancel(false));
+    }
+
+    boolean hasStreamCredit() {
+        return stats.streamsLeft() > 0;
+    }
+
+    // 在channel上创建stream失败时调用，返回true表示已经切换到另一条连接，可以在本连接上重试
+    boolean streamCreditExhausted(QuicChannel channel) {
+        if (channel != quicChannel) {
+            return isUsable(quicChannel);
+        }
+        stats.streamCreditExhausted();
+        return promoteStandby();
+    }
+
+    void streamOpened(QuicStreamChannel streamChannel) {
+        activeStreams.incrementAndGet();
+        streamChannel.closeFuture().addListener(f -> activeStreams.decrementAndGet());
+    }
+
+    // 每单位拥塞窗口承载的stream数，丢包率越高负载越重，值越小越优先
+    double load() {
+        QuicStatsTracker.Sample sample = stats;
+        long window = sample.cwnd() > 0 ? sample.cwnd() : INITIAL_CWND;
+        return (activeStreams.get() + 1) * (double) INITIAL_CWND / window * (1 + sample.lossRatio());
+    }
+}
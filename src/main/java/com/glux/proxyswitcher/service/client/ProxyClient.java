@@ -1,19 +1,30 @@
 package com.glux.proxyswitcher.service.client;
 
+import com.glux.proxyswitcher.service.common.Forwarder;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
 import java.net.InetSocketAddress;
 
 public class ProxyClient {
+    // SOCKS5/HTTP CONNECT通用代理端口，0表示不启动。目标地址随stream发送给服务端
+    public static final int PROXY_PORT = Integer.getInteger("proxy.client.proxyPort", 0);
+    // UDP监听端口，0表示不启动。数据包通过QUIC DATAGRAM帧转发到服务端的默认目标
+    public static final int UDP_PORT = Integer.getInteger("proxy.client.udpPort", 0);
+
     private final String tcpHost;
     private final int tcpPort;
     private final String quicHost;
@@ -38,16 +49,41 @@ public class ProxyClient {
         ServerBootstrap b = new ServerBootstrap();
         b.group(group)
                 .channel(channelClass)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, Forwarder.WRITE_BUFFER_WATER_MARK)
+                .childOption(ChannelOption.AUTO_READ, false)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
-                        autoConnectQuicConnection.getQuicChannel();
                         ch.pipeline().addLast(new TcpToQuicHandler(autoConnectQuicConnection));
                     }
                 });
 
         b.bind(new InetSocketAddress(tcpHost, tcpPort)).sync();
+        ProxyMetrics.eventLoopGroup("client-tcp", group);
         System.out.println("代理端启动，监听TCP端口: " + tcpPort);
+
+        if (PROXY_PORT > 0) {
+            // 握手阶段需要读取数据，不关闭AUTO_READ，握手完成后由TcpToQuicHandler接管
+            new ServerBootstrap().group(group)
+                    .channel(channelClass)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, Forwarder.WRITE_BUFFER_WATER_MARK)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(new ProxyProtocolDetector(autoConnectQuicConnection));
+                        }
+                    })
+                    .bind(new InetSocketAddress(tcpHost, PROXY_PORT)).sync();
+            System.out.println("代理端启动，监听SOCKS5/HTTP代理端口: " + PROXY_PORT);
+        }
+
+        if (UDP_PORT > 0) {
+            new Bootstrap().group(group)
+                    .channel(useEpoll ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                    .handler(new UdpTunnel(autoConnectQuicConnection))
+                    .bind(new InetSocketAddress(tcpHost, UDP_PORT)).sync();
+            System.out.println("代理端启动，监听UDP端口: " + UDP_PORT);
+        }
     }
 
     private void createSharedQuicConnection() throws Exception {
@@ -56,5 +92,6 @@ public class ProxyClient {
 
     public void stop() {
         if (group != null) group.shutdownGracefully();
+        if (autoConnectQuicConnection != null) autoConnectQuicConnection.close();
     }
 }
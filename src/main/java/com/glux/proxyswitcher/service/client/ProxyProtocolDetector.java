@@ -0,0 +1,61 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.socksx.SocksVersion;
+import io.netty.handler.codec.socksx.v5.Socks5InitialRequestDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5ServerEncoder;
+
+import java.util.List;
+
+// 通用代理端口：根据第一个字节区分SOCKS5和HTTP CONNECT，加入对应的握手处理器后移除自身
+public class ProxyProtocolDetector extends ByteToMessageDecoder {
+
+    private final AutoConnectQuicConnection connection;
+
+    public ProxyProtocolDetector(AutoConnectQuicConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (!in.isReadable()) {
+            return;
+        }
+        byte first = in.getByte(in.readerIndex());
+        ChannelPipeline pipeline = ctx.pipeline();
+        // 后加入的排在前面，最终顺序为 编码器、解码器、握手处理器
+        if (first == SocksVersion.SOCKS5.byteValue()) {
+            pipeline.addAfter(ctx.name(), null, new Socks5FrontendHandler(connection));
+            pipeline.addAfter(ctx.name(), null, new Socks5InitialRequestDecoder());
+            pipeline.addAfter(ctx.name(), null, Socks5ServerEncoder.DEFAULT);
+        } else if (first >= 'A' && first <= 'Z') {
+            pipeline.addAfter(ctx.name(), null, new HttpConnectFrontendHandler(connection));
+            pipeline.addAfter(ctx.name(), null, new HttpServerCodec());
+        } else {
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            return;
+        }
+        pipeline.remove(this);
+    }
+
+    // 握手完成后把连接交给TcpToQuicHandler。先停止读取，stream打开后由Forwarder恢复；
+    // 先加入TcpToQuicHandler再移除握手相关的处理器，解码器中剩余的数据会交给它缓存
+    @SafeVarargs
+    static void startTunnel(ChannelHandlerContext ctx, AutoConnectQuicConnection connection, StreamHeader header,
+                            Class<? extends ChannelHandler>... handshakeHandlers) {
+        ctx.channel().config().setAutoRead(false);
+        ChannelPipeline pipeline = ctx.pipeline();
+        pipeline.addLast(new TcpToQuicHandler(connection, header));
+        for (Class<? extends ChannelHandler> handler : handshakeHandlers) {
+            pipeline.remove(handler);
+        }
+        pipeline.remove(ctx.handler());
+    }
+}
@@ -0,0 +1,72 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.socksx.SocksMessage;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5CommandResponse;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5InitialResponse;
+import io.netty.handler.codec.socksx.v5.Socks5AddressType;
+import io.netty.handler.codec.socksx.v5.Socks5AuthMethod;
+import io.netty.handler.codec.socksx.v5.Socks5CommandRequest;
+import io.netty.handler.codec.socksx.v5.Socks5CommandRequestDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5CommandStatus;
+import io.netty.handler.codec.socksx.v5.Socks5CommandType;
+import io.netty.handler.codec.socksx.v5.Socks5InitialRequest;
+import io.netty.handler.codec.socksx.v5.Socks5InitialRequestDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5ServerEncoder;
+
+// SOCKS5握手(无认证，只支持CONNECT)。目标是否可达要等服务端连接后才知道，这里不等待，直接回复成功；
+// 服务端连接失败或拒绝时stream被重置，TCP连接随之关闭
+public class Socks5FrontendHandler extends SimpleChannelInboundHandler<SocksMessage> {
+
+    private final AutoConnectQuicConnection connection;
+
+    public Socks5FrontendHandler(AutoConnectQuicConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, SocksMessage msg) {
+        if (msg.decoderResult().isFailure()) {
+            ctx.close();
+            return;
+        }
+        if (msg instanceof Socks5InitialRequest request) {
+            if (!request.authMethods().contains(Socks5AuthMethod.NO_AUTH)) {
+                ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.UNACCEPTED))
+                        .addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            ctx.pipeline().replace(Socks5InitialRequestDecoder.class, null, new Socks5CommandRequestDecoder());
+            ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.NO_AUTH));
+        } else if (msg instanceof Socks5CommandRequest request) {
+            if (request.type() != Socks5CommandType.CONNECT) {
+                ctx.writeAndFlush(new DefaultSocks5CommandResponse(Socks5CommandStatus.COMMAND_UNSUPPORTED,
+                        Socks5AddressType.IPv4)).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            StreamHeader header;
+            try {
+                header = StreamHeader.of(request.dstAddr(), request.dstPort());
+            } catch (IllegalArgumentException e) {
+                ctx.writeAndFlush(new DefaultSocks5CommandResponse(Socks5CommandStatus.ADDRESS_UNSUPPORTED,
+                        Socks5AddressType.IPv4)).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            ProxyMetrics.FRONTEND_SOCKS5_REQUESTS.increment();
+            ctx.writeAndFlush(new DefaultSocks5CommandResponse(Socks5CommandStatus.SUCCESS, Socks5AddressType.IPv4));
+            ProxyProtocolDetector.startTunnel(ctx, connection, header,
+                    Socks5CommandRequestDecoder.class, Socks5ServerEncoder.class);
+        } else {
+            ctx.close();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+}
@@ -1,70 +1,227 @@
 package com.glux.proxyswitcher.service.client;
 
+import com.glux.proxyswitcher.service.common.Forwarder;
+import com.glux.proxyswitcher.service.common.StreamCompressor;
+import com.glux.proxyswitcher.service.common.StreamDecompressor;
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import com.glux.proxyswitcher.service.common.StreamScheduler;
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.incubator.codec.quic.DefaultQuicStreamFrame;
 import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TcpToQuicHandler extends ChannelInboundHandlerAdapter {
 
     private static final Logger logger = LoggerFactory.getLogger(TcpToQuicHandler.class);
 
-    private static final AtomicLong tcpCounter = new AtomicLong(0);
-    private static final AtomicLong quicStreamCounter = new AtomicLong(0);
+    // 代理端同时存在的隧道上限，超过后新的TCP连接直接关闭，0表示不限制
+    public static final int MAX_TUNNELS = Integer.getInteger("proxy.client.maxTunnels", 0);
+
+    private static final AtomicInteger TUNNELS = new AtomicInteger();
+    private static final Counter TUNNELS_REJECTED = ProxyMetrics.counter("proxy_rejected_total",
+            "Tunnels rejected by overload limits", "side", "client", "reason", "tunnels");
 
     private final AutoConnectQuicConnection quicChannel;
+    // 打开stream前按本地监听端口和目标地址加入流量类别
+    private StreamHeader header;
+    // SOCKS5/HTTP CONNECT握手时多读到的数据，stream打开后先发送
+    private final ArrayDeque<Object> pendingWrites = new ArrayDeque<>();
 
     private QuicStreamChannel streamChannel;
+    // 在TCP连接的EventLoop中创建，stream的EventLoop在可写状态变化时读取
+    private volatile Forwarder tcpToStream;
+    private StreamHandler streamHandler;
+    private boolean opened;
 
     public TcpToQuicHandler(AutoConnectQuicConnection quicChannel) {
+        this(quicChannel, StreamHeader.defaultTarget());
+    }
+
+    public TcpToQuicHandler(AutoConnectQuicConnection quicChannel, StreamHeader header) {
         this.quicChannel = quicChannel;
+        this.header = StreamCompressor.ENABLED ? header.withFlags(header.flags() | StreamHeader.FLAG_LZ4) : header;
+    }
+
+    // 由前端协议处理器在握手完成后加入pipeline时，连接已经是active状态
+    @Override
+    public void handlerAdded(ChannelHandlerContext tcpCtx) {
+        if (tcpCtx.channel().isActive()) {
+            open(tcpCtx);
+        }
     }
 
     @Override
     public void channelActive(ChannelHandlerContext tcpCtx) throws Exception {
-        System.out.println("TCP Connections:" + tcpCounter.incrementAndGet());
-        logger.info("Client: tcp connection setup.");
-        streamChannel = quicChannel.createStream(new ChannelInboundHandlerAdapter() {
-            @Override
-            public void channelActive(ChannelHandlerContext ctx) throws Exception {
-                System.out.println("Stream Connections:" + quicStreamCounter.incrementAndGet());
-                super.channelActive(ctx);
-            }
+        open(tcpCtx);
+        super.channelActive(tcpCtx);
+    }
 
-            @Override
-            public void channelRead(ChannelHandlerContext ctx, Object msg) {
-                logger.info("Client: stream received from server.");
-                tcpCtx.writeAndFlush(msg);
-            }
+    private void open(ChannelHandlerContext tcpCtx) {
+        if (opened) {
+            return;
+        }
+        if (TUNNELS.incrementAndGet() > MAX_TUNNELS && MAX_TUNNELS > 0) {
+            TUNNELS.decrementAndGet();
+            TUNNELS_REJECTED.increment();
+            logger.info("Client: too many tunnels, closing tcp connection.");
+            tcpCtx.close();
+            return;
+        }
+        opened = true;
+        int listenPort = ((InetSocketAddress) tcpCtx.channel().localAddress()).getPort();
+        header = header.withTrafficClass(TrafficClassifier.classify(listenPort, header));
+        ProxyMetrics.CLIENT_ACTIVE_TUNNELS.increment();
+        logger.info("Client: tcp connection setup.");
+        streamHandler = new StreamHandler(tcpCtx.channel());
+        // stream打开前TCP连接不读取数据(ProxyClient关闭了AUTO_READ)，打开后再开始读取
+        quicChannel.createStream(streamHandler, tcpCtx.executor().newPromise())
+                .addListener(f -> streamCreated(tcpCtx, f));
+    }
 
-            @Override
-            public void channelInactive(ChannelHandlerContext ctx) {
-                System.out.println("Stream Connections:" + quicStreamCounter.decrementAndGet());
-                logger.info("Client: stream closed by remote.");
-                tcpCtx.close();
+    private void streamCreated(ChannelHandlerContext tcpCtx, Future<?> future) {
+        if (!future.isSuccess()) {
+            logger.info("Client: stream open failed.", future.cause());
+            ProxyMetrics.CLIENT_STREAM_OPEN_FAILURES.increment();
+            releasePendingWrites();
+            tcpCtx.close();
+            return;
+        }
+        QuicStreamChannel channel = (QuicStreamChannel) future.getNow();
+        if (!tcpCtx.channel().isActive()) {
+            releasePendingWrites();
+            channel.close();
+            return;
+        }
+        ProxyMetrics.CLIENT_STREAM_OPENS.increment();
+        streamChannel = channel;
+        // 目标地址头立即发出，服务端收到后才连接目标，不能等待TCP客户端先发送数据。
+        // 作为QuicStreamFrame写出，不经过只处理ByteBuf的压缩器
+        ByteBuf headerBuf = channel.alloc().buffer();
+        header.encode(headerBuf);
+        channel.write(new DefaultQuicStreamFrame(headerBuf, false));
+        Object msg;
+        while ((msg = pendingWrites.poll()) != null) {
+            if (msg instanceof ByteBuf buf) {
+                ProxyMetrics.CLIENT_BYTES_UPSTREAM.add(buf.readableBytes());
             }
-        });
+            channel.write(msg);
+        }
+        channel.flush();
+        tcpToStream = new Forwarder(tcpCtx.channel(), streamChannel, ProxyMetrics.CLIENT_BYTES_UPSTREAM);
+        tcpToStream.destinationWritabilityChanged();
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         logger.info("Client: send stream to server.");
-        if (streamChannel.isActive()) {
-            streamChannel.writeAndFlush(msg);
+        if (streamChannel != null && streamChannel.isActive()) {
+            tcpToStream.forward(msg);
+        } else if (streamChannel == null && opened) {
+            pendingWrites.add(msg);
         } else {
+            ReferenceCountUtil.release(msg);
             ctx.close();
         }
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        if (tcpToStream != null) {
+            tcpToStream.readComplete();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Forwarder forwarder = streamHandler != null ? streamHandler.streamToTcp : null;
+        if (forwarder != null) {
+            forwarder.destinationWritabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
-        System.out.println("TCP Connections:" + tcpCounter.decrementAndGet());
+        if (!opened) {
+            return;
+        }
+        TUNNELS.decrementAndGet();
+        ProxyMetrics.CLIENT_ACTIVE_TUNNELS.decrement();
         logger.info("Client: stream closed.");
+        releasePendingWrites();
+        if (tcpToStream != null) {
+            tcpToStream.close();
+        }
         if (streamChannel != null) {
             streamChannel.close();
         }
     }
-}
\ No newline at end of file
+
+    private void releasePendingWrites() {
+        Object msg;
+        while ((msg = pendingWrites.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private class StreamHandler extends ChannelInboundHandlerAdapter {
+        private final Channel tcpChannel;
+        // 在stream的EventLoop中创建，TCP连接的EventLoop在可写状态变化时读取
+        private volatile Forwarder streamToTcp;
+
+        StreamHandler(Channel tcpChannel) {
+            this.tcpChannel = tcpChannel;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            ctx.channel().config().setWriteBufferWaterMark(Forwarder.WRITE_BUFFER_WATER_MARK);
+            if (header.hasFlag(StreamHeader.FLAG_LZ4)) {
+                // 在stream创建时加入，之后所有写入都在stream的EventLoop中经过压缩器
+                ctx.pipeline().addBefore(ctx.name(), null, new StreamDecompressor())
+                        .addBefore(ctx.name(), null, new StreamCompressor());
+            }
+            StreamScheduler.apply((QuicStreamChannel) ctx.channel(), header.trafficClass());
+            streamToTcp = new Forwarder(ctx.channel(), tcpChannel, ProxyMetrics.CLIENT_BYTES_DOWNSTREAM);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            logger.info("Client: stream received from server.");
+            streamToTcp.forward(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            streamToTcp.readComplete();
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            Forwarder forwarder = tcpToStream;
+            if (forwarder != null) {
+                forwarder.destinationWritabilityChanged();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            logger.info("Client: stream closed by remote.");
+            streamToTcp.close();
+            tcpChannel.close();
+        }
+    }
+}
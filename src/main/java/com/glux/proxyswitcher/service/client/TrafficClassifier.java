@@ -0,0 +1,53 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.DestinationAllowlist;
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import com.glux.proxyswitcher.service.common.TrafficClass;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 代理端按目标地址和本地监听端口确定隧道的流量类别，目标地址规则优先。
+// 没有匹配的隧道为DEFAULT，由两端在发送量超过proxy.class.bulkBytes后自动降为BULK
+final class TrafficClassifier {
+
+    // 目标规则与服务端允许列表的格式相同，例如 *:22,*.rpc.internal:*
+    static final DestinationAllowlist INTERACTIVE =
+            DestinationAllowlist.parse(System.getProperty("proxy.class.interactive", ""));
+    static final DestinationAllowlist BULK =
+            DestinationAllowlist.parse(System.getProperty("proxy.class.bulk", ""));
+    // 本地监听端口到类别，例如 8888=interactive,1080=bulk
+    static final Map<Integer, TrafficClass> LISTEN_PORTS =
+            parsePorts(System.getProperty("proxy.class.listenPorts", ""));
+
+    private TrafficClassifier() {
+    }
+
+    static TrafficClass classify(int listenPort, StreamHeader header) {
+        if (!header.isDefaultTarget()) {
+            if (INTERACTIVE.allows(header.host(), header.port())) {
+                return TrafficClass.INTERACTIVE;
+            }
+            if (BULK.allows(header.host(), header.port())) {
+                return TrafficClass.BULK;
+            }
+        }
+        return LISTEN_PORTS.getOrDefault(listenPort, TrafficClass.DEFAULT);
+    }
+
+    private static Map<Integer, TrafficClass> parsePorts(String spec) {
+        Map<Integer, TrafficClass> ports = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("监听端口类别格式错误: " + entry);
+            }
+            ports.put(Integer.parseInt(entry.substring(0, eq).trim()), TrafficClass.parse(entry.substring(eq + 1)));
+        }
+        return ports;
+    }
+}
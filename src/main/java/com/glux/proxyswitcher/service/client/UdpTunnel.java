@@ -0,0 +1,129 @@
+package com.glux.proxyswitcher.service.client;
+
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// 代理端UDP入口：每个来源地址是一个flow，数据包通过QUIC DATAGRAM帧发给服务端，由服务端转发到默认目标。
+// DATAGRAM帧不重传，丢包和乱序由应用自己处理，与直接使用UDP一致
+public class UdpTunnel extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private final AutoConnectQuicConnection connection;
+    // 以下只在channel的EventLoop中访问
+    private final Map<InetSocketAddress, Flow> bySource = new HashMap<>();
+    private final IntObjectMap<Flow> byId = new IntObjectHashMap<>();
+    private Channel channel;
+    private int nextFlowId;
+
+    public UdpTunnel(AutoConnectQuicConnection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        connection.datagramReceiver(this::received);
+        long sweep = Math.max(1, QuicDatagrams.UDP_IDLE_SECONDS / 2);
+        ScheduledFuture<?> task = ctx.executor().scheduleAtFixedRate(this::evictIdle, sweep, sweep, TimeUnit.SECONDS);
+        channel.closeFuture().addListener(f -> task.cancel(false));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        Flow flow = bySource.get(packet.sender());
+        if (flow == null) {
+            flow = new Flow(nextFlowId++, packet.sender());
+            bySource.put(flow.source, flow);
+            byId.put(flow.id, flow);
+            ProxyMetrics.CLIENT_UDP_FLOWS.increment();
+        }
+        flow.lastActive = System.nanoTime();
+        ByteBuf payload = packet.content().retain();
+        ProxyMetrics.CLIENT_BYTES_UPSTREAM.add(payload.readableBytes());
+
+        Future<QuicChannel> quicChannel = flow.quicChannel;
+        if (quicChannel == null
+                || quicChannel.isDone() && (!quicChannel.isSuccess() || !quicChannel.getNow().isOpen())) {
+            // 还没有选定连接或连接已经关闭时重新选择，flow id不变
+            quicChannel = connection.datagramChannel();
+            flow.quicChannel = quicChannel;
+        }
+        int flowId = flow.id;
+        if (quicChannel.isDone()) {
+            send(quicChannel, flowId, payload);
+        } else {
+            Future<QuicChannel> pending = quicChannel;
+            pending.addListener(f -> send(pending, flowId, payload));
+        }
+    }
+
+    private static void send(Future<QuicChannel> future, int flowId, ByteBuf payload) {
+        if (!future.isSuccess()) {
+            payload.release();
+            ProxyMetrics.CLIENT_UDP_DROPPED.increment();
+            return;
+        }
+        QuicChannel quicChannel = future.getNow();
+        quicChannel.writeAndFlush(QuicDatagrams.udp(quicChannel.alloc(), flowId, payload)).addListener(f -> {
+            if (!f.isSuccess()) {
+                ProxyMetrics.CLIENT_UDP_DROPPED.increment();
+            }
+        });
+    }
+
+    // 在QUIC连接的EventLoop中调用，datagram的所有权转交给本方法
+    private void received(ByteBuf datagram) {
+        channel.eventLoop().execute(() -> {
+            Flow flow = byId.get(QuicDatagrams.udpFlowId(datagram));
+            if (flow == null) {
+                datagram.release();
+                ProxyMetrics.CLIENT_UDP_UNKNOWN_FLOW.increment();
+                return;
+            }
+            flow.lastActive = System.nanoTime();
+            ByteBuf payload = QuicDatagrams.udpPayload(datagram);
+            ProxyMetrics.CLIENT_BYTES_DOWNSTREAM.add(payload.readableBytes());
+            channel.writeAndFlush(new DatagramPacket(payload, flow.source));
+        });
+    }
+
+    private void evictIdle() {
+        long idleBefore = System.nanoTime() - TimeUnit.SECONDS.toNanos(QuicDatagrams.UDP_IDLE_SECONDS);
+        for (Iterator<Flow> it = bySource.values().iterator(); it.hasNext(); ) {
+            Flow flow = it.next();
+            if (flow.lastActive - idleBefore < 0) {
+                it.remove();
+                byId.remove(flow.id);
+                ProxyMetrics.CLIENT_UDP_FLOWS.decrement();
+            }
+        }
+    }
+
+    private static final class Flow {
+        private final int id;
+        private final InetSocketAddress source;
+        private Future<QuicChannel> quicChannel;
+        private long lastActive;
+
+        Flow(int id, InetSocketAddress source) {
+            this.id = id;
+            this.source = source;
+        }
+    }
+}
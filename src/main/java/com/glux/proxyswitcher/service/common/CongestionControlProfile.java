@@ -0,0 +1,31 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.incubator.codec.quic.QuicCodecBuilder;
+import io.netty.incubator.codec.quic.QuicCongestionControlAlgorithm;
+
+import java.util.Locale;
+
+// 代理端和服务端共用的拥塞控制参数，拥塞控制只影响本端发出的数据，两端需要分别设置
+public final class CongestionControlProfile {
+
+    // cubic(quiche默认) / reno / bbr
+    public static final QuicCongestionControlAlgorithm ALGORITHM = QuicCongestionControlAlgorithm.valueOf(
+            System.getProperty("quic.cc", "cubic").toUpperCase(Locale.ROOT));
+    // 慢启动阶段根据RTT增长提前退出，避免高带宽时延积路径上的突发丢包
+    public static final boolean HYSTART = Boolean.parseBoolean(System.getProperty("quic.hystart", "true"));
+    public static final int INITIAL_CWND_PACKETS = Integer.getInteger("quic.initialCwndPackets", 10);
+
+    private CongestionControlProfile() {
+    }
+
+    public static <B extends QuicCodecBuilder<B>> B apply(B builder) {
+        return builder.congestionControlAlgorithm(ALGORITHM)
+                .hystart(HYSTART)
+                .initialCongestionWindowPackets(INITIAL_CWND_PACKETS);
+    }
+
+    public static String describe() {
+        return ALGORITHM.name().toLowerCase(Locale.ROOT) + ", hystart=" + HYSTART
+                + ", initialCwndPackets=" + INITIAL_CWND_PACKETS;
+    }
+}
@@ -0,0 +1,124 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.util.NetUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// 按目标地址匹配的规则列表(服务端的允许列表、代理端的流量分类)，逗号分隔的 <主机>:<端口> 列表：
+//   主机: example.com 精确匹配; *.example.com 匹配所有子域名; 10.0.0.0/8、fd00::/8 匹配IP地址段; * 任意
+//   端口: 443; 8000-8999; * 任意
+// 域名规则只按代理端请求的名字匹配，不检查解析后的地址
+public final class DestinationAllowlist {
+
+    private final List<Rule> rules;
+
+    private DestinationAllowlist(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static DestinationAllowlist parse(String spec) {
+        List<Rule> rules = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("允许列表缺少端口: " + entry);
+            }
+            rules.add(new Rule(entry.substring(0, colon), entry.substring(colon + 1)));
+        }
+        return new DestinationAllowlist(rules);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public boolean allows(String host, int port) {
+        String normalized = host.toLowerCase(Locale.ROOT);
+        if (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(normalized);
+        for (Rule rule : rules) {
+            if (rule.matchesPort(port) && rule.matchesHost(normalized, ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Rule {
+        private final String host;
+        private final byte[] network;
+        private final int prefixLength;
+        private final int minPort;
+        private final int maxPort;
+
+        Rule(String host, String port) {
+            host = host.toLowerCase(Locale.ROOT);
+            if (host.startsWith("[") && host.contains("]")) {
+                host = host.substring(1, host.indexOf(']')) + host.substring(host.indexOf(']') + 1);
+            }
+            int slash = host.indexOf('/');
+            String address = slash >= 0 ? host.substring(0, slash) : host;
+            byte[] ip = NetUtil.createByteArrayFromIpAddressString(address);
+            if (ip != null) {
+                this.host = null;
+                this.network = ip;
+                this.prefixLength = slash >= 0 ? Integer.parseInt(host.substring(slash + 1)) : ip.length * 8;
+                if (prefixLength < 0 || prefixLength > ip.length * 8) {
+                    throw new IllegalArgumentException("地址段前缀长度错误: " + host);
+                }
+            } else {
+                this.host = host;
+                this.network = null;
+                this.prefixLength = 0;
+            }
+            if ("*".equals(port)) {
+                minPort = 1;
+                maxPort = 65535;
+            } else {
+                int dash = port.indexOf('-');
+                minPort = Integer.parseInt(dash >= 0 ? port.substring(0, dash) : port);
+                maxPort = dash >= 0 ? Integer.parseInt(port.substring(dash + 1)) : minPort;
+            }
+        }
+
+        boolean matchesPort(int port) {
+            return port >= minPort && port <= maxPort;
+        }
+
+        boolean matchesHost(String host, byte[] ip) {
+            if (network != null) {
+                return ip != null && ip.length == network.length && samePrefix(ip);
+            }
+            if ("*".equals(this.host)) {
+                return true;
+            }
+            if (this.host.startsWith("*.")) {
+                return host.endsWith(this.host.substring(1));
+            }
+            return host.equals(this.host);
+        }
+
+        private boolean samePrefix(byte[] ip) {
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (ip[i] != network[i]) {
+                    return false;
+                }
+            }
+            int restBits = prefixLength % 8;
+            if (restBits == 0) {
+                return true;
+            }
+            int mask = (0xff << (8 - restBits)) & 0xff;
+            return (ip[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
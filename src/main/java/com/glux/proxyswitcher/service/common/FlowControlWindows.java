@@ -0,0 +1,64 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.QuicStatsTracker;
+
+import java.util.concurrent.TimeUnit;
+
+// QUIC流控窗口。新连接的初始窗口取已有连接测得的带宽时延积(BDP)的2倍，再按全局内存预算平摊到每条连接；
+// 没有活跃连接时(例如唯一的连接断开后重连)使用同一目标最近关闭的连接测得的BDP。
+// 连接建立后quiche会在数据被及时消费时自动把窗口翻倍增长，Java侧无法再修改已建立连接的窗口。
+// 服务端codec在启动时就要确定参数，始终使用配置的初始值
+public final class FlowControlWindows {
+
+    public static final long INITIAL_CONNECTION_WINDOW = Long.getLong("quic.window.initialConnection", 10_000_000);
+    public static final long INITIAL_STREAM_WINDOW = Long.getLong("quic.window.initialStream", 1_000_000);
+    public static final long MAX_CONNECTION_WINDOW = Long.getLong("quic.window.maxConnection", 64L << 20);
+    // 所有连接初始窗口之和的上限，即最坏情况下接收端需要缓存的数据量
+    public static final long MEMORY_BUDGET = Long.getLong("quic.window.memoryBudget", 512L << 20);
+    // 已关闭连接测得的BDP的有效期(秒)，路径状况可能已经变化，过期后不再使用
+    public static final long BDP_MAX_AGE_SECONDS = Long.getLong("quic.window.bdpMaxAgeSeconds", 600);
+
+    private final long connection;
+    private final long stream;
+
+    private FlowControlWindows(long connection, long stream) {
+        this.connection = connection;
+        this.stream = stream;
+    }
+
+    // 没有测量数据可用时(例如服务端codec在启动时就要确定参数)使用配置的初始值
+    public static FlowControlWindows initial() {
+        return new FlowControlWindows(INITIAL_CONNECTION_WINDOW, Math.min(INITIAL_STREAM_WINDOW, INITIAL_CONNECTION_WINDOW));
+    }
+
+    public static FlowControlWindows forNewConnection(QuicStatsTracker tracker, String target) {
+        long bdp = tracker.maxBdp();
+        if (bdp == 0) {
+            bdp = tracker.recentBdp(target, TimeUnit.SECONDS.toNanos(BDP_MAX_AGE_SECONDS));
+        }
+        long window = 2 * bdp;
+        long limit = Math.min(MAX_CONNECTION_WINDOW, MEMORY_BUDGET / (tracker.connections() + 1));
+        long connection = clamp(window, INITIAL_CONNECTION_WINDOW, limit);
+        // 单个stream也要能跑满整条路径，否则长距离的单连接大文件传输会被stream窗口限速
+        long stream = clamp(window, INITIAL_STREAM_WINDOW, connection);
+        return new FlowControlWindows(connection, stream);
+    }
+
+    // 预算不足时以上限为准，即使低于配置的初始值
+    private static long clamp(long value, long min, long max) {
+        return Math.min(Math.max(value, min), max);
+    }
+
+    public long connection() {
+        return connection;
+    }
+
+    public long stream() {
+        return stream;
+    }
+
+    @Override
+    public String toString() {
+        return "connection=" + connection + ", stream=" + stream;
+    }
+}
@@ -0,0 +1,146 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// 单方向转发：destination超过高水位时暂停读取source，恢复可写后继续读取
+public class Forwarder {
+
+    public static final WriteBufferWaterMark WRITE_BUFFER_WATER_MARK = new WriteBufferWaterMark(
+            Integer.getInteger("proxy.writeBufferLowWaterMark", 32 * 1024),
+            Integer.getInteger("proxy.writeBufferHighWaterMark", 64 * 1024));
+
+    public enum FlushMode {
+        // 每次读取都立即flush
+        IMMEDIATE,
+        // 读取时只write，source一轮读取结束(channelReadComplete)时再flush
+        READ_COMPLETE,
+        // 在READ_COMPLETE基础上把小包合并成接近MTU大小的buffer，最多延迟maxDelayMicros
+        AGGREGATE
+    }
+
+    public static final FlushMode FLUSH_MODE =
+            FlushMode.valueOf(System.getProperty("proxy.flushMode", "immediate").toUpperCase(Locale.ROOT));
+    public static final int AGGREGATE_MAX_BYTES = Integer.getInteger("proxy.aggregate.maxBytes", 1200);
+    public static final long AGGREGATE_MAX_DELAY_MICROS = Long.getLong("proxy.aggregate.maxDelayMicros", 200);
+
+    private final Channel source;
+    private final Channel destination;
+    private final Counter bytes;
+    // 以下状态只在source的EventLoop中访问
+    private ByteBuf aggregate;
+    private ScheduledFuture<?> aggregateFlush;
+    private boolean needsFlush;
+
+    public Forwarder(Channel source, Channel destination, Counter bytes) {
+        this.source = source;
+        this.destination = destination;
+        this.bytes = bytes;
+    }
+
+    public void forward(Object msg) {
+        if (!destination.isActive()) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (msg instanceof ByteBuf buf) {
+            bytes.add(buf.readableBytes());
+        }
+        switch (FLUSH_MODE) {
+            case IMMEDIATE -> destination.writeAndFlush(msg);
+            case READ_COMPLETE -> {
+                destination.write(msg);
+                needsFlush = true;
+            }
+            case AGGREGATE -> aggregate(msg);
+        }
+        pauseIfUnwritable();
+    }
+
+    public void readComplete() {
+        if (aggregate != null) {
+            if (needsFlush) {
+                // 本轮已经有数据要flush，合并中的小包一起发出，不再额外等待
+                writeAggregate();
+            } else if (aggregateFlush == null) {
+                aggregateFlush = source.eventLoop().schedule(() -> {
+                    aggregateFlush = null;
+                    writeAggregate();
+                    flushIfNeeded();
+                }, AGGREGATE_MAX_DELAY_MICROS, TimeUnit.MICROSECONDS);
+            }
+        }
+        flushIfNeeded();
+    }
+
+    public void destinationWritabilityChanged() {
+        source.config().setAutoRead(destination.isWritable());
+    }
+
+    // source或destination关闭时调用。destination仍然可用时先写出合并中的数据，否则释放
+    public void close() {
+        if (aggregateFlush != null) {
+            aggregateFlush.cancel(false);
+            aggregateFlush = null;
+        }
+        if (destination.isActive()) {
+            writeAggregate();
+            flushIfNeeded();
+        } else if (aggregate != null) {
+            aggregate.release();
+            aggregate = null;
+        }
+    }
+
+    private void aggregate(Object msg) {
+        if (!(msg instanceof ByteBuf buf) || buf.readableBytes() >= AGGREGATE_MAX_BYTES) {
+            writeAggregate();
+            destination.write(msg);
+            needsFlush = true;
+            return;
+        }
+        if (aggregate != null && aggregate.writableBytes() < buf.readableBytes()) {
+            writeAggregate();
+        }
+        if (aggregate == null) {
+            aggregate = source.alloc().ioBuffer(AGGREGATE_MAX_BYTES, AGGREGATE_MAX_BYTES);
+        }
+        aggregate.writeBytes(buf);
+        buf.release();
+        if (!aggregate.isWritable()) {
+            writeAggregate();
+        }
+    }
+
+    private void writeAggregate() {
+        if (aggregate != null) {
+            destination.write(aggregate);
+            aggregate = null;
+            needsFlush = true;
+        }
+    }
+
+    private void flushIfNeeded() {
+        if (needsFlush) {
+            needsFlush = false;
+            destination.flush();
+        }
+    }
+
+    private void pauseIfUnwritable() {
+        if (!destination.isWritable()) {
+            source.config().setAutoRead(false);
+            // destination可能在另一个EventLoop上刚好恢复可写，再检查一次避免永久暂停
+            if (destination.isWritable()) {
+                source.config().setAutoRead(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 网络损伤模拟，放在UDP channel中QUIC codec之前，对经过的datagram注入延迟、抖动、丢包、乱序和限速。
+// 默认只处理发出的包，代理端和服务端都开启时两个方向各经过一次；只有一端可控时用both
+public class ImpairmentHandler extends ChannelDuplexHandler {
+
+    public enum Direction {IN, OUT, BOTH}
+
+    public static final long DELAY_MICROS = (long) (Double.parseDouble(System.getProperty("quic.impair.delayMillis", "0")) * 1000);
+    public static final long JITTER_MICROS = (long) (Double.parseDouble(System.getProperty("quic.impair.jitterMillis", "0")) * 1000);
+    public static final double LOSS = Double.parseDouble(System.getProperty("quic.impair.loss", "0"));
+    // 被选中乱序的包额外延迟reorderMillis，让后面的包先到
+    public static final double REORDER = Double.parseDouble(System.getProperty("quic.impair.reorder", "0"));
+    public static final long REORDER_MICROS = (long) (Double.parseDouble(System.getProperty("quic.impair.reorderMillis", "5")) * 1000);
+    // 瓶颈带宽，0表示不限速；排队超过queueBytes的包被丢弃
+    public static final long RATE_KBPS = Long.getLong("quic.impair.rateKbps", 0);
+    public static final long QUEUE_BYTES = Long.getLong("quic.impair.queueBytes", 256 * 1024);
+    public static final Direction DIRECTION =
+            Direction.valueOf(System.getProperty("quic.impair.direction", "out").toUpperCase(Locale.ROOT));
+
+    private static final Counter LOST = ProxyMetrics.counter("impair_dropped_packets_total",
+            "Datagrams dropped by the impairment emulator", "reason", "loss");
+    private static final Counter QUEUE_DROPPED = ProxyMetrics.counter("impair_dropped_packets_total",
+            "Datagrams dropped by the impairment emulator", "reason", "queue");
+    private static final Counter REORDERED = ProxyMetrics.counter("impair_reordered_packets_total",
+            "Datagrams delayed out of order by the impairment emulator");
+
+    // 每个方向的瓶颈链路在何时空闲，只在channel的EventLoop中访问
+    private long inFreeAt;
+    private long outFreeAt;
+
+    public static boolean enabled() {
+        return DELAY_MICROS > 0 || JITTER_MICROS > 0 || LOSS > 0 || REORDER > 0 || RATE_KBPS > 0;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (DIRECTION == Direction.OUT || !(msg instanceof DatagramPacket packet)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        long delay = delayNanos(packet.content().readableBytes(), true);
+        if (delay < 0) {
+            ReferenceCountUtil.release(msg);
+        } else if (delay == 0) {
+            ctx.fireChannelRead(msg);
+        } else {
+            ctx.executor().schedule(() -> {
+                ctx.fireChannelRead(msg);
+                ctx.fireChannelReadComplete();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (DIRECTION == Direction.IN || !(msg instanceof DatagramPacket packet)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        long delay = delayNanos(packet.content().readableBytes(), false);
+        if (delay < 0) {
+            // 在链路上丢失，对发送方来说写入是成功的
+            ReferenceCountUtil.release(msg);
+            promise.trySuccess();
+        } else if (delay == 0) {
+            ctx.write(msg, promise);
+        } else {
+            ctx.executor().schedule(() -> ctx.writeAndFlush(msg, promise), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // 返回该包还需延迟的纳秒数，小于0表示丢弃
+    private long delayNanos(int size, boolean inbound) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (LOSS > 0 && random.nextDouble() < LOSS) {
+            LOST.increment();
+            return -1;
+        }
+        long now = System.nanoTime();
+        long departure = now;
+        if (RATE_KBPS > 0) {
+            long freeAt = Math.max(now, inbound ? inFreeAt : outFreeAt);
+            if ((freeAt - now) * RATE_KBPS / 8_000_000 > QUEUE_BYTES) {
+                QUEUE_DROPPED.increment();
+                return -1;
+            }
+            // 包在瓶颈上的发送时间：字节数*8 / (kbps*1000) 秒
+            departure = freeAt + size * 8_000_000L / RATE_KBPS;
+            if (inbound) {
+                inFreeAt = departure;
+            } else {
+                outFreeAt = departure;
+            }
+        }
+        long delay = DELAY_MICROS;
+        if (JITTER_MICROS > 0) {
+            delay += random.nextLong(-JITTER_MICROS, JITTER_MICROS + 1);
+        }
+        if (REORDER > 0 && random.nextDouble() < REORDER) {
+            REORDERED.increment();
+            delay += REORDER_MICROS;
+        }
+        return Math.max(0, departure - now + TimeUnit.MICROSECONDS.toNanos(Math.max(0, delay)));
+    }
+}
@@ -0,0 +1,23 @@
+package com.glux.proxyswitcher.service.common;
+
+// 服务端重置stream时使用的应用错误码，代理端据此区分失败原因
+public final class ProxyErrorCodes {
+
+    // 连接目标服务器失败
+    public static final int TARGET_CONNECT_FAILED = 0x101;
+    // 目标地址不在服务端允许列表中
+    public static final int DESTINATION_NOT_ALLOWED = 0x102;
+    // stream开头的目标地址头无法解析
+    public static final int BAD_STREAM_HEADER = 0x103;
+    // 压缩块格式错误或解压失败，两端都可能使用
+    public static final int BAD_COMPRESSED_BLOCK = 0x104;
+    // 服务端隧道数或正在连接目标的数量达到上限
+    public static final int OVERLOADED = 0x105;
+    // 代理端打开stream的速率超过限制
+    public static final int RATE_LIMITED = 0x106;
+    // 服务端正在排空，新隧道应使用其他连接
+    public static final int DRAINING = 0x107;
+
+    private ProxyErrorCodes() {
+    }
+}
@@ -0,0 +1,60 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+// 代理端与服务端之间QUIC DATAGRAM帧的格式：第一个字节是类型，其余内容由类型决定
+public final class QuicDatagrams {
+
+    // 连接保活，没有内容，收到后直接丢弃。DATAGRAM帧需要确认，发送和确认都会重置两端的空闲计时
+    public static final byte KEEPALIVE = 0x00;
+    // UDP数据包：[类型][flow id(4字节)][数据]，flow id由代理端分配，服务端按连接和flow id区分来源
+    public static final byte UDP = 0x01;
+    public static final int UDP_HEADER_LENGTH = 5;
+    // 服务端开始排空，没有内容。代理端收到后新stream改用其他连接，已有的stream和UDP flow继续使用本连接
+    public static final byte GOAWAY = 0x02;
+
+    // 两端UDP flow的空闲超时(秒)，超时后释放flow状态和服务端的UDP socket
+    public static final int UDP_IDLE_SECONDS = Integer.getInteger("proxy.udp.idleSeconds", 60);
+
+    // 两端codec的DATAGRAM收发队列长度，启用后握手时协商DATAGRAM扩展
+    public static final int RECV_QUEUE_LENGTH = Integer.getInteger("quic.datagram.recvQueue", 256);
+    public static final int SEND_QUEUE_LENGTH = Integer.getInteger("quic.datagram.sendQueue", 256);
+
+    private QuicDatagrams() {
+    }
+
+    public static ByteBuf keepalive(ByteBufAllocator alloc) {
+        return alloc.buffer(1).writeByte(KEEPALIVE);
+    }
+
+    public static ByteBuf goaway(ByteBufAllocator alloc) {
+        return alloc.buffer(1).writeByte(GOAWAY);
+    }
+
+    // 封装UDP数据包，payload被释放
+    public static ByteBuf udp(ByteBufAllocator alloc, int flowId, ByteBuf payload) {
+        ByteBuf datagram = alloc.directBuffer(UDP_HEADER_LENGTH + payload.readableBytes());
+        datagram.writeByte(UDP).writeInt(flowId).writeBytes(payload);
+        payload.release();
+        return datagram;
+    }
+
+    public static boolean isUdp(ByteBuf datagram) {
+        return type(datagram) == UDP && datagram.readableBytes() >= UDP_HEADER_LENGTH;
+    }
+
+    public static int udpFlowId(ByteBuf datagram) {
+        return datagram.getInt(datagram.readerIndex() + 1);
+    }
+
+    // 跳过头部，返回的就是datagram本身
+    public static ByteBuf udpPayload(ByteBuf datagram) {
+        return datagram.skipBytes(UDP_HEADER_LENGTH);
+    }
+
+    // 空数据返回-1
+    public static int type(ByteBuf datagram) {
+        return datagram.isReadable() ? datagram.getUnsignedByte(datagram.readerIndex()) : -1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+// stream数据按块压缩：type(1) 长度(3) [原始长度(3)，仅LZ4块] 数据。
+// 每个stream先按采样结果决定是否继续压缩，已压缩或加密的数据节省不到minSaving时，之后只发送原始块
+public class StreamCompressor extends MessageToByteEncoder<ByteBuf> {
+
+    // 代理端是否为新stream请求压缩，服务端按StreamHeader中的标志使用
+    public static final boolean ENABLED = "lz4".equalsIgnoreCase(System.getProperty("proxy.compress", "none"));
+    public static final int SAMPLE_BYTES = Integer.getInteger("proxy.compress.sampleBytes", 64 * 1024);
+    public static final double MIN_SAVING = Double.parseDouble(System.getProperty("proxy.compress.minSaving", "0.1"));
+
+    static final int TYPE_RAW = 0;
+    static final int TYPE_LZ4 = 1;
+    static final int MAX_BLOCK = 64 * 1024;
+    static final int RAW_HEADER_LENGTH = 4;
+    static final int LZ4_HEADER_LENGTH = 7;
+
+    // LZ4Compressor没有状态，可以在线程间共用
+    static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+    private static final LZ4Compressor COMPRESSOR = LZ4.fastCompressor();
+
+    private boolean compressing = true;
+    private long sampledIn;
+    private long sampledOut;
+
+    public StreamCompressor() {
+        super(ByteBuf.class, true);
+    }
+
+    // 按最坏情况一次分配，避免编码过程中扩容
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, ByteBuf msg, boolean preferDirect) {
+        int length = msg.readableBytes();
+        int blocks = Math.max(1, (length + MAX_BLOCK - 1) / MAX_BLOCK);
+        int capacity = compressing
+                ? COMPRESSOR.maxCompressedLength(length) + blocks * (LZ4_HEADER_LENGTH + 16)
+                : length + blocks * RAW_HEADER_LENGTH;
+        return ctx.alloc().ioBuffer(capacity);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) {
+        int inputBytes = msg.readableBytes();
+        int start = out.writerIndex();
+        while (msg.isReadable()) {
+            int length = Math.min(msg.readableBytes(), MAX_BLOCK);
+            if (!compressing || !writeCompressed(msg, length, out)) {
+                out.ensureWritable(RAW_HEADER_LENGTH + length);
+                out.writeByte(TYPE_RAW).writeMedium(length).writeBytes(msg, length);
+            }
+        }
+        ProxyMetrics.COMPRESS_INPUT_BYTES.add(inputBytes);
+        ProxyMetrics.COMPRESS_OUTPUT_BYTES.add(out.writerIndex() - start);
+    }
+
+    // 压缩后没有变小时不写入，返回false
+    private boolean writeCompressed(ByteBuf msg, int length, ByteBuf out) {
+        int maxLength = COMPRESSOR.maxCompressedLength(length);
+        out.ensureWritable(LZ4_HEADER_LENGTH + maxLength);
+        int start = out.writerIndex();
+        int compressed = COMPRESSOR.compress(msg.nioBuffer(msg.readerIndex(), length), 0, length,
+                out.nioBuffer(start + LZ4_HEADER_LENGTH, maxLength), 0, maxLength);
+        sample(length, compressed);
+        if (compressed >= length) {
+            return false;
+        }
+        out.writeByte(TYPE_LZ4).writeMedium(compressed).writeMedium(length);
+        out.writerIndex(start + LZ4_HEADER_LENGTH + compressed);
+        msg.skipBytes(length);
+        return true;
+    }
+
+    private void sample(int length, int compressed) {
+        sampledIn += length;
+        sampledOut += Math.min(compressed, length);
+        if (sampledIn < SAMPLE_BYTES) {
+            return;
+        }
+        if (1 - (double) sampledOut / sampledIn < MIN_SAVING) {
+            compressing = false;
+            ProxyMetrics.COMPRESS_DISABLED_STREAMS.increment();
+        }
+        sampledIn = 0;
+        sampledOut = 0;
+    }
+}
@@ -0,0 +1,99 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.util.List;
+
+// 解析StreamCompressor输出的块，块格式错误或stream在块中间结束时以BAD_COMPRESSED_BLOCK重置stream，
+// 之后收到的数据全部丢弃
+public class StreamDecompressor extends ByteToMessageDecoder {
+
+    // 数据来自网络，使用会检查边界的解压器
+    private static final LZ4SafeDecompressor DECOMPRESSOR = StreamCompressor.LZ4.safeDecompressor();
+
+    private boolean failed;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (failed) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        if (in.readableBytes() < StreamCompressor.RAW_HEADER_LENGTH) {
+            return;
+        }
+        int start = in.readerIndex();
+        int type = in.getUnsignedByte(start);
+        int length = in.getUnsignedMedium(start + 1);
+        switch (type) {
+            case StreamCompressor.TYPE_RAW -> {
+                if (length > StreamCompressor.MAX_BLOCK) {
+                    fail(ctx, in);
+                } else if (in.readableBytes() >= StreamCompressor.RAW_HEADER_LENGTH + length) {
+                    in.skipBytes(StreamCompressor.RAW_HEADER_LENGTH);
+                    out.add(in.readRetainedSlice(length));
+                }
+            }
+            case StreamCompressor.TYPE_LZ4 -> {
+                if (length >= StreamCompressor.MAX_BLOCK) {
+                    fail(ctx, in);
+                } else if (in.readableBytes() >= StreamCompressor.LZ4_HEADER_LENGTH + length) {
+                    ByteBuf block = decompress(ctx, in, start, length);
+                    if (block == null) {
+                        fail(ctx, in);
+                    } else {
+                        in.skipBytes(StreamCompressor.LZ4_HEADER_LENGTH + length);
+                        out.add(block);
+                    }
+                }
+            }
+            default -> fail(ctx, in);
+        }
+    }
+
+    private static ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf in, int start, int length) {
+        int original = in.getUnsignedMedium(start + 4);
+        if (original == 0 || original > StreamCompressor.MAX_BLOCK) {
+            return null;
+        }
+        ByteBuf block = ctx.alloc().ioBuffer(original);
+        try {
+            int size = DECOMPRESSOR.decompress(in.nioBuffer(start + StreamCompressor.LZ4_HEADER_LENGTH, length), 0,
+                    length, block.nioBuffer(0, original), 0, original);
+            if (size != original) {
+                block.release();
+                return null;
+            }
+            return block.writerIndex(original);
+        } catch (LZ4Exception e) {
+            block.release();
+            return null;
+        }
+    }
+
+    // 对端关闭发送方向时还有不完整的块
+    @Override
+    protected void decodeLast(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        super.decodeLast(ctx, in, out);
+        if (in.isReadable() && !failed) {
+            fail(ctx, in);
+        }
+    }
+
+    private void fail(ChannelHandlerContext ctx, ByteBuf in) {
+        failed = true;
+        in.skipBytes(in.readableBytes());
+        reset(ctx, ProxyErrorCodes.BAD_COMPRESSED_BLOCK);
+    }
+
+    // 测试中替换为记录错误码
+    void reset(ChannelHandlerContext ctx, int errorCode) {
+        ((QuicStreamChannel) ctx.channel()).shutdown(errorCode).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,150 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.NetUtil;
+
+import java.nio.charset.StandardCharsets;
+
+// 代理端在每个QUIC stream开头发送的目标地址头：
+//   version(1) flags(1) atyp(1) [地址] [端口(2)]
+//   flags: 0x01=两个方向的数据都使用StreamCompressor分块压缩
+//          0x0c=流量类别TrafficClass(0默认 1交互 2批量)，两端据此设置stream优先级
+//   atyp: 0=服务端默认目标(没有地址和端口) 1=IPv4(4字节) 3=域名(1字节长度+域名) 4=IPv6(16字节)，与SOCKS5取值相同
+public final class StreamHeader {
+
+    public static final int VERSION = 1;
+
+    public static final int FLAG_LZ4 = 0x01;
+    private static final int CLASS_MASK = 0x0c;
+    private static final int CLASS_SHIFT = 2;
+
+    private static final int ATYP_DEFAULT = 0;
+    private static final int ATYP_IPV4 = 1;
+    private static final int ATYP_DOMAIN = 3;
+    private static final int ATYP_IPV6 = 4;
+
+    private final int flags;
+    // null表示服务端默认目标
+    private final String host;
+    private final int port;
+
+    private StreamHeader(int flags, String host, int port) {
+        this.flags = flags;
+        this.host = host;
+        this.port = port;
+    }
+
+    public static StreamHeader defaultTarget() {
+        return new StreamHeader(0, null, 0);
+    }
+
+    public static StreamHeader of(String host, int port) {
+        if (host == null || host.isEmpty() || host.length() > 255) {
+            throw new IllegalArgumentException("目标地址错误: " + host);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("目标端口错误: " + port);
+        }
+        return new StreamHeader(0, host, port);
+    }
+
+    public boolean isDefaultTarget() {
+        return host == null;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public StreamHeader withFlags(int flags) {
+        return new StreamHeader(flags, host, port);
+    }
+
+    public TrafficClass trafficClass() {
+        return TrafficClass.of((flags & CLASS_MASK) >> CLASS_SHIFT);
+    }
+
+    public StreamHeader withTrafficClass(TrafficClass trafficClass) {
+        return withFlags((flags & ~CLASS_MASK) | (trafficClass.id() << CLASS_SHIFT));
+    }
+
+    public void encode(ByteBuf out) {
+        out.writeByte(VERSION).writeByte(flags);
+        if (host == null) {
+            out.writeByte(ATYP_DEFAULT);
+            return;
+        }
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(host);
+        if (ip != null) {
+            out.writeByte(ip.length == 4 ? ATYP_IPV4 : ATYP_IPV6).writeBytes(ip);
+        } else {
+            byte[] name = host.getBytes(StandardCharsets.US_ASCII);
+            out.writeByte(ATYP_DOMAIN).writeByte(name.length).writeBytes(name);
+        }
+        out.writeShort(port);
+    }
+
+    // 数据不完整时返回null并且不移动readerIndex，格式错误时抛出IllegalArgumentException
+    public static StreamHeader decode(ByteBuf in) {
+        if (in.readableBytes() < 3) {
+            return null;
+        }
+        int start = in.readerIndex();
+        int version = in.getUnsignedByte(start);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的stream头版本: " + version);
+        }
+        int flags = in.getUnsignedByte(start + 1);
+        int atyp = in.getUnsignedByte(start + 2);
+        int addressLength;
+        switch (atyp) {
+            case ATYP_DEFAULT -> {
+                in.skipBytes(3);
+                return new StreamHeader(flags, null, 0);
+            }
+            case ATYP_IPV4 -> addressLength = 4;
+            case ATYP_IPV6 -> addressLength = 16;
+            case ATYP_DOMAIN -> {
+                if (in.readableBytes() < 4) {
+                    return null;
+                }
+                addressLength = 1 + in.getUnsignedByte(start + 3);
+                if (addressLength == 1) {
+                    throw new IllegalArgumentException("目标域名为空");
+                }
+            }
+            default -> throw new IllegalArgumentException("不支持的地址类型: " + atyp);
+        }
+        if (in.readableBytes() < 3 + addressLength + 2) {
+            return null;
+        }
+        String host;
+        if (atyp == ATYP_DOMAIN) {
+            host = in.toString(start + 4, addressLength - 1, StandardCharsets.US_ASCII);
+        } else {
+            byte[] ip = new byte[addressLength];
+            in.getBytes(start + 3, ip);
+            host = NetUtil.bytesToIpAddress(ip);
+        }
+        int port = in.getUnsignedShort(start + 3 + addressLength);
+        in.skipBytes(3 + addressLength + 2);
+        return new StreamHeader(flags, host, port);
+    }
+
+    @Override
+    public String toString() {
+        return host == null ? "default" : NetUtil.toSocketAddressString(host, port);
+    }
+}
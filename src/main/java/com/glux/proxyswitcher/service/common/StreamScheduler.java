@@ -0,0 +1,143 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// 按流量类别设置本端发送方向的stream优先级。
+// quiche按urgency严格优先，交互隧道持续有数据时批量隧道会完全停止发送，因此每个周期中有bulkShare比例的时间
+// 把批量stream提升到交互级别，与交互stream轮流发送，保证批量隧道的最低份额。
+// DEFAULT类别的stream发送超过bulkBytes后降为BULK，长时间的大流量下载不再影响同一连接上的其他隧道
+public final class StreamScheduler {
+
+    public static final double BULK_SHARE = Double.parseDouble(System.getProperty("proxy.class.bulkShare", "0.2"));
+    public static final long BULK_BYTES = Long.getLong("proxy.class.bulkBytes", 4 * 1024 * 1024);
+    private static final long PERIOD_MILLIS = 100;
+
+    private static final AttributeKey<BulkStreams> BULK_STREAMS =
+            AttributeKey.valueOf(StreamScheduler.class, "bulkStreams");
+    private static final Counter DEMOTED = ProxyMetrics.counter("proxy_bulk_demotions_total",
+            "DEFAULT streams demoted to BULK after sending bulkBytes");
+    private static final Map<TrafficClass, Counter> OPENED = new EnumMap<>(TrafficClass.class);
+
+    static {
+        for (TrafficClass c : TrafficClass.values()) {
+            OPENED.put(c, ProxyMetrics.counter("proxy_stream_classes_total", "Streams opened per traffic class",
+                    "class", c.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    private StreamScheduler() {
+    }
+
+    public static void apply(QuicStreamChannel stream, TrafficClass trafficClass) {
+        OPENED.get(trafficClass).increment();
+        if (trafficClass != TrafficClass.DEFAULT) {
+            stream.updatePriority(trafficClass.priority());
+        }
+        if (trafficClass == TrafficClass.BULK) {
+            bulk(stream);
+        } else if (trafficClass == TrafficClass.DEFAULT && BULK_BYTES > 0) {
+            // 放在pipeline最前面，统计的是实际写入stream的字节数(压缩之后)
+            stream.pipeline().addFirst(new BulkDetector());
+        }
+    }
+
+    private static void bulk(QuicStreamChannel stream) {
+        if (BULK_SHARE <= 0) {
+            return;
+        }
+        // stream与所在的QuicChannel使用同一个EventLoop
+        stream.eventLoop().execute(() -> {
+            QuicChannel parent = stream.parent();
+            BulkStreams streams = parent.attr(BULK_STREAMS).get();
+            if (streams == null) {
+                streams = new BulkStreams(parent);
+                parent.attr(BULK_STREAMS).set(streams);
+            }
+            streams.add(stream);
+        });
+    }
+
+    // 一条连接上的批量stream，只在连接的EventLoop中访问
+    private static final class BulkStreams {
+        private final QuicChannel channel;
+        private final Set<QuicStreamChannel> streams = new HashSet<>();
+        private ScheduledFuture<?> task;
+        private boolean boosted;
+
+        BulkStreams(QuicChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(QuicStreamChannel stream) {
+            if (!stream.isOpen()) {
+                return;
+            }
+            streams.add(stream);
+            stream.closeFuture().addListener(f -> streams.remove(stream));
+            if (boosted) {
+                stream.updatePriority(TrafficClass.INTERACTIVE.priority());
+            }
+            if (task == null) {
+                schedule(0);
+            }
+        }
+
+        // 提升持续PERIOD*share，恢复持续其余时间，没有批量stream时停止
+        private void schedule(long delayMillis) {
+            task = channel.eventLoop().schedule(this::toggle, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void toggle() {
+            if (streams.isEmpty() || !channel.isOpen()) {
+                task = null;
+                boosted = false;
+                return;
+            }
+            boosted = !boosted;
+            TrafficClass level = boosted ? TrafficClass.INTERACTIVE : TrafficClass.BULK;
+            for (QuicStreamChannel stream : streams) {
+                stream.updatePriority(level.priority());
+            }
+            long boostMillis = Math.max(1, Math.round(PERIOD_MILLIS * Math.min(1, BULK_SHARE)));
+            schedule(boosted ? boostMillis : Math.max(1, PERIOD_MILLIS - boostMillis));
+        }
+    }
+
+    private static final class BulkDetector extends ChannelOutboundHandlerAdapter {
+        private long written;
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf buf) {
+                written += buf.readableBytes();
+            } else if (msg instanceof ByteBufHolder holder) {
+                written += holder.content().readableBytes();
+            }
+            super.write(ctx, msg, promise);
+            if (written >= BULK_BYTES) {
+                QuicStreamChannel stream = (QuicStreamChannel) ctx.channel();
+                ctx.pipeline().remove(this);
+                DEMOTED.increment();
+                stream.updatePriority(TrafficClass.BULK.priority());
+                bulk(stream);
+            }
+        }
+    }
+}
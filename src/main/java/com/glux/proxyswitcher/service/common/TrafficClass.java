@@ -0,0 +1,45 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.incubator.codec.quic.QuicStreamPriority;
+
+import java.util.Locale;
+
+// 隧道的流量类别，由代理端决定并写入StreamHeader，两端按类别设置各自发送方向的stream优先级。
+// urgency取值0-7，越小越优先，同一urgency的stream轮流发送
+public enum TrafficClass {
+    DEFAULT(0, 3),
+    // SSH、RPC等对延迟敏感的隧道
+    INTERACTIVE(1, 1),
+    // 大文件传输等只关心吞吐的隧道
+    BULK(2, 5);
+
+    private final int id;
+    private final QuicStreamPriority priority;
+
+    TrafficClass(int id, int urgency) {
+        this.id = id;
+        this.priority = new QuicStreamPriority(urgency, true);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public QuicStreamPriority priority() {
+        return priority;
+    }
+
+    // 未知的类别按DEFAULT处理，新版本代理端增加类别时旧服务端仍然可用
+    public static TrafficClass of(int id) {
+        for (TrafficClass c : values()) {
+            if (c.id == id) {
+                return c;
+            }
+        }
+        return DEFAULT;
+    }
+
+    public static TrafficClass parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
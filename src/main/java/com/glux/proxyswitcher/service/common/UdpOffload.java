@@ -0,0 +1,82 @@
+package com.glux.proxyswitcher.service.common;
+
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.incubator.codec.quic.EpollQuicUtils;
+import io.netty.incubator.codec.quic.QuicChannelBootstrap;
+import io.netty.incubator.codec.quic.QuicChannelOption;
+import io.netty.incubator.codec.quic.QuicServerCodecBuilder;
+
+// epoll下QUIC UDP socket的批量收发：GSO一次sendmsg发出多个包，GRO和recvmmsg一次读取多个包。
+// 内核不支持时按原来的方式逐包收发
+public final class UdpOffload {
+
+    public static final boolean ENABLED = Boolean.getBoolean("quic.udpOffload");
+    // 一次sendmsg最多合并的包数
+    public static final int GSO_SEGMENTS = Integer.getInteger("quic.udpOffload.gsoSegments", 16);
+    // 一次读取最多收取的包数
+    public static final int RECV_BATCH = Integer.getInteger("quic.udpOffload.recvBatch", 16);
+
+    // 按以太网MTU计算单个包的大小，GRO合并后的包最大64KB
+    private static final int MAX_DATAGRAM_SIZE = 1500;
+    private static final int GRO_BUFFER_SIZE = 65536;
+
+    private UdpOffload() {
+    }
+
+    public static boolean gsoSupported() {
+        return ENABLED && Epoll.isAvailable() && EpollDatagramChannel.isSegmentedDatagramPacketSupported();
+    }
+
+    // GSO通过QuicChannel的channel option设置，服务端对所有连接生效，代理端在创建连接时设置
+    public static QuicServerCodecBuilder apply(QuicServerCodecBuilder builder) {
+        if (gsoSupported()) {
+            builder.option(QuicChannelOption.SEGMENTED_DATAGRAM_PACKET_ALLOCATOR,
+                    EpollQuicUtils.newSegmentedAllocator(GSO_SEGMENTS));
+        }
+        return builder;
+    }
+
+    public static QuicChannelBootstrap apply(QuicChannelBootstrap bootstrap) {
+        if (gsoSupported()) {
+            bootstrap.option(QuicChannelOption.SEGMENTED_DATAGRAM_PACKET_ALLOCATOR,
+                    EpollQuicUtils.newSegmentedAllocator(GSO_SEGMENTS));
+        }
+        return bootstrap;
+    }
+
+    // 只对EpollDatagramChannel生效。内核不支持UDP_GRO时设置失败，Bootstrap记录警告后继续创建socket
+    public static Bootstrap configure(Bootstrap bootstrap) {
+        if (ENABLED && Epoll.isAvailable()) {
+            bootstrap.option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                    .option(EpollChannelOption.UDP_GRO, true)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(
+                            Math.max(GRO_BUFFER_SIZE, MAX_DATAGRAM_SIZE * RECV_BATCH)));
+        }
+        return bootstrap;
+    }
+
+    // 绑定后按实际生效的设置更新指标，返回描述用于日志
+    public static String report(Channel channel, String side) {
+        boolean epoll = ENABLED && channel instanceof EpollDatagramChannel;
+        boolean gso = epoll && gsoSupported();
+        boolean gro = epoll && Boolean.TRUE.equals(channel.config().getOption(EpollChannelOption.UDP_GRO));
+        Integer payloadSize = epoll ? channel.config().getOption(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE) : null;
+        boolean recvmmsg = payloadSize != null && payloadSize > 0;
+        gauge(side, "gso", gso);
+        gauge(side, "gro", gro);
+        gauge(side, "recvmmsg", recvmmsg);
+        return "gso=" + gso + ", gro=" + gro + ", recvmmsg=" + recvmmsg;
+    }
+
+    private static void gauge(String side, String feature, boolean active) {
+        ProxyMetrics.gauge("quic_udp_offload", "UDP offload paths in use by QUIC sockets (1=active)",
+                () -> active ? 1 : 0, "side", side, "feature", feature);
+    }
+}
@@ -0,0 +1,20 @@
+package com.glux.proxyswitcher.service.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// 单调递增计数，LongAdder按线程分段累加，数据路径上没有竞争
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
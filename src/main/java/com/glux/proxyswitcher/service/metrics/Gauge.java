@@ -0,0 +1,30 @@
+package com.glux.proxyswitcher.service.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// 可增可减的当前值，也可以在抓取时由supplier计算
+public class Gauge {
+    private final LongAdder value = new LongAdder();
+    private final DoubleSupplier supplier;
+
+    Gauge(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void decrement() {
+        value.decrement();
+    }
+
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public double get() {
+        return supplier != null ? supplier.getAsDouble() : value.sum();
+    }
+}
@@ -0,0 +1,75 @@
+package com.glux.proxyswitcher.service.metrics;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.CharsetUtil;
+
+import java.net.InetSocketAddress;
+
+// Prometheus抓取接口，端口为0时不启动
+public class MetricsServer {
+
+    public static final int PORT = Integer.getInteger("proxy.metrics.port", 0);
+    public static final String HOST = System.getProperty("proxy.metrics.host", "127.0.0.1");
+
+    private EventLoopGroup group;
+
+    public void start() throws Exception {
+        if (PORT <= 0) {
+            return;
+        }
+        group = new NioEventLoopGroup(1);
+        new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new HttpServerCodec())
+                                .addLast(new HttpObjectAggregator(8192))
+                                .addLast(new SimpleChannelInboundHandler<FullHttpRequest>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+                                        FullHttpResponse response;
+                                        if (request.uri().startsWith("/metrics")) {
+                                            ByteBuf body = Unpooled.copiedBuffer(ProxyMetrics.scrape(), CharsetUtil.UTF_8);
+                                            response = new DefaultFullHttpResponse(request.protocolVersion(),
+                                                    HttpResponseStatus.OK, body);
+                                            response.headers().set(HttpHeaderNames.CONTENT_TYPE,
+                                                    "text/plain; version=0.0.4; charset=utf-8");
+                                        } else {
+                                            response = new DefaultFullHttpResponse(request.protocolVersion(),
+                                                    HttpResponseStatus.NOT_FOUND);
+                                        }
+                                        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH,
+                                                response.content().readableBytes());
+                                        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                                    }
+                                });
+                    }
+                })
+                .bind(new InetSocketAddress(HOST, PORT))
+                .sync();
+        System.out.println("指标接口启动: http://" + HOST + ":" + PORT + "/metrics");
+    }
+
+    public void stop() {
+        if (group != null) group.shutdownGracefully();
+    }
+}
@@ -0,0 +1,185 @@
+package com.glux.proxyswitcher.service.metrics;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+// 进程内的指标注册表，按Prometheus文本格式输出
+public final class ProxyMetrics {
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    // 代理端与服务端共用的指标
+    public static final Gauge CLIENT_ACTIVE_TUNNELS = gauge("proxy_active_tunnels", "Active tunnels", "side", "client");
+    public static final Gauge SERVER_ACTIVE_TUNNELS = gauge("proxy_active_tunnels", "Active tunnels", "side", "server");
+    public static final Counter CLIENT_STREAM_OPENS = counter("proxy_stream_opens_total", "QUIC streams opened", "side", "client");
+    public static final Counter SERVER_STREAM_OPENS = counter("proxy_stream_opens_total", "QUIC streams opened", "side", "server");
+    public static final Counter CLIENT_STREAM_OPEN_FAILURES = counter("proxy_stream_open_failures_total",
+            "QUIC streams that could not be opened", "side", "client");
+    public static final Counter CLIENT_BYTES_UPSTREAM = counter("proxy_bytes_total", "Bytes forwarded",
+            "side", "client", "direction", "upstream");
+    public static final Counter CLIENT_BYTES_DOWNSTREAM = counter("proxy_bytes_total", "Bytes forwarded",
+            "side", "client", "direction", "downstream");
+    public static final Counter SERVER_BYTES_UPSTREAM = counter("proxy_bytes_total", "Bytes forwarded",
+            "side", "server", "direction", "upstream");
+    public static final Counter SERVER_BYTES_DOWNSTREAM = counter("proxy_bytes_total", "Bytes forwarded",
+            "side", "server", "direction", "downstream");
+    public static final Histogram TARGET_CONNECT_SECONDS = histogram("proxy_target_connect_seconds",
+            "Time to connect to the target server", Histogram.LATENCY_BUCKETS);
+    public static final Counter TARGET_CONNECT_FAILURES = counter("proxy_target_connect_failures_total",
+            "Failed connects to the target server");
+    public static final Counter FRONTEND_SOCKS5_REQUESTS = counter("proxy_frontend_requests_total",
+            "Tunnels requested through the general proxy port", "protocol", "socks5");
+    public static final Counter FRONTEND_HTTP_CONNECT_REQUESTS = counter("proxy_frontend_requests_total",
+            "Tunnels requested through the general proxy port", "protocol", "http_connect");
+    public static final Gauge CLIENT_UDP_FLOWS = gauge("proxy_udp_flows", "Active UDP flows", "side", "client");
+    public static final Gauge SERVER_UDP_FLOWS = gauge("proxy_udp_flows", "Active UDP flows", "side", "server");
+    public static final Counter CLIENT_UDP_DROPPED = counter("proxy_udp_dropped_total",
+            "UDP packets dropped by the tunnel", "side", "client", "reason", "send_failed");
+    public static final Counter CLIENT_UDP_UNKNOWN_FLOW = counter("proxy_udp_dropped_total",
+            "UDP packets dropped by the tunnel", "side", "client", "reason", "unknown_flow");
+    public static final Counter SERVER_UDP_DROPPED = counter("proxy_udp_dropped_total",
+            "UDP packets dropped by the tunnel", "side", "server", "reason", "send_failed");
+    public static final Counter SERVER_UDP_PENDING_DROPPED = counter("proxy_udp_dropped_total",
+            "UDP packets dropped by the tunnel", "side", "server", "reason", "pending_full");
+    public static final Counter SERVER_UDP_FLOW_LIMIT_DROPPED = counter("proxy_udp_dropped_total",
+            "UDP packets dropped by the tunnel", "side", "server", "reason", "flow_limit");
+    public static final Counter COMPRESS_INPUT_BYTES = counter("proxy_compress_bytes_total",
+            "Bytes passed through the stream compressor", "stage", "input");
+    public static final Counter COMPRESS_OUTPUT_BYTES = counter("proxy_compress_bytes_total",
+            "Bytes passed through the stream compressor", "stage", "output");
+    public static final Counter COMPRESS_DISABLED_STREAMS = counter("proxy_compress_disabled_total",
+            "Streams that stopped compressing because sampled data did not compress");
+    public static final Counter DESTINATION_DENIED = counter("proxy_destination_denied_total",
+            "Streams rejected because the destination is not allowed");
+
+    private ProxyMetrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return family(name, help, "counter").get(labels, l -> new Counter());
+    }
+
+    public static Gauge gauge(String name, String help, String... labels) {
+        return family(name, help, "gauge").get(labels, l -> new Gauge(null));
+    }
+
+    // 同名同标签的supplier会被替换，重新启动的组件不会继续引用旧对象
+    public static Gauge gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        Gauge gauge = new Gauge(supplier);
+        family(name, help, "gauge").put(labels, gauge);
+        return gauge;
+    }
+
+    public static Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return family(name, help, "histogram").get(labels, l -> new Histogram(buckets));
+    }
+
+    // EventLoop中等待执行的任务数，持续增长说明线程已经处理不过来
+    public static void eventLoopGroup(String name, EventLoopGroup group) {
+        gauge("event_loop_pending_tasks", "Tasks waiting in event loop queues", () -> {
+            long pending = 0;
+            for (EventExecutor executor : group) {
+                if (executor instanceof SingleThreadEventExecutor e) {
+                    pending += e.pendingTasks();
+                }
+            }
+            return pending;
+        }, "group", name);
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            family.render(out);
+        }
+        return out.toString();
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("指标类型冲突: " + name);
+        }
+        return family;
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T get(String[] labels, Function<String, T> factory) {
+            return (T) series.computeIfAbsent(labelString(labels), factory::apply);
+        }
+
+        void put(String[] labels, Object metric) {
+            series.put(labelString(labels), metric);
+        }
+
+        void render(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            new ConcurrentSkipListMap<>(series).forEach((labels, metric) -> {
+                if (metric instanceof Counter c) {
+                    sample(out, name, labels, c.get());
+                } else if (metric instanceof Gauge g) {
+                    sample(out, name, labels, g.get());
+                } else if (metric instanceof Histogram h) {
+                    double[] bounds = h.bounds();
+                    long[] counts = h.cumulativeCounts();
+                    for (int i = 0; i < bounds.length; i++) {
+                        sample(out, name + "_bucket", join(labels, "le=\"" + bounds[i] + "\""), counts[i]);
+                    }
+                    long count = h.count();
+                    sample(out, name + "_bucket", join(labels, "le=\"+Inf\""), count);
+                    sample(out, name + "_sum", labels, h.sum());
+                    sample(out, name + "_count", labels, count);
+                }
+            });
+        }
+
+        private static void sample(StringBuilder out, String name, String labels, double value) {
+            out.append(name);
+            if (!labels.isEmpty()) {
+                out.append('{').append(labels).append('}');
+            }
+            out.append(' ');
+            if (value == Math.rint(value) && !Double.isInfinite(value)) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+            out.append('\n');
+        }
+
+        private static String join(String labels, String extra) {
+            return labels.isEmpty() ? extra : labels + "," + extra;
+        }
+
+        private static String labelString(String[] labels) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+            }
+            return sb.toString();
+        }
+    }
+}
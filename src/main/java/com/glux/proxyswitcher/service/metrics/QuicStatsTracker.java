@@ -0,0 +1,153 @@
+package com.glux.proxyswitcher.service.metrics;
+
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicConnectionPathStats;
+import io.netty.incubator.codec.quic.QuicConnectionStats;
+import io.netty.incubator.codec.quic.QuicStreamType;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// 定期在连接所在的EventLoop上采集QUIC连接统计，既用于指标输出，也供连接选择使用
+public class QuicStatsTracker {
+
+    public static final long INTERVAL_MILLIS = 1000;
+
+    public static final QuicStatsTracker CLIENT = new QuicStatsTracker("client");
+    public static final QuicStatsTracker SERVER = new QuicStatsTracker("server");
+
+    private final Histogram rtt;
+    private final Counter sentPackets;
+    private final Counter lostPackets;
+    private final Set<Sample> live = ConcurrentHashMap.newKeySet();
+    // 每个目标最近关闭的连接测得的BDP，重连时还没有活跃连接可用
+    private final Map<String, Recent> recent = new ConcurrentHashMap<>();
+
+    private QuicStatsTracker(String side) {
+        rtt = ProxyMetrics.histogram("quic_rtt_seconds", "RTT samples of QUIC connections",
+                Histogram.LATENCY_BUCKETS, "side", side);
+        sentPackets = ProxyMetrics.counter("quic_sent_packets_total", "QUIC packets sent", "side", side);
+        lostPackets = ProxyMetrics.counter("quic_lost_packets_total", "QUIC packets lost", "side", side);
+        ProxyMetrics.gauge("quic_connections", "Tracked QUIC connections", live::size, "side", side);
+        ProxyMetrics.gauge("quic_cwnd_bytes", "Sum of congestion windows of QUIC connections",
+                () -> live.stream().mapToLong(s -> s.cwnd).sum(), "side", side);
+        ProxyMetrics.gauge("quic_max_bdp_bytes", "Largest bandwidth-delay product among QUIC connections",
+                this::maxBdp, "side", side);
+    }
+
+    public int connections() {
+        return live.size();
+    }
+
+    // 所有连接中最大的带宽时延积，用于确定新连接的流控窗口
+    public long maxBdp() {
+        long max = 0;
+        for (Sample sample : live) {
+            max = Math.max(max, sample.bdp());
+        }
+        return max;
+    }
+
+    // 目标最近一条连接关闭时的BDP，没有记录或记录早于maxAgeNanos时返回0
+    public long recentBdp(String target, long maxAgeNanos) {
+        Recent last = recent.get(target);
+        return last != null && System.nanoTime() - last.at < maxAgeNanos ? last.bdp : 0;
+    }
+
+    public Sample track(QuicChannel channel) {
+        return track(channel, null);
+    }
+
+    // target不为null时，连接关闭后保留它最后测得的BDP，供同一目标的下一条连接使用
+    public Sample track(QuicChannel channel, String target) {
+        Sample sample = new Sample();
+        live.add(sample);
+        ScheduledFuture<?> task = channel.eventLoop().scheduleAtFixedRate(() -> collect(channel, sample),
+                INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        channel.closeFuture().addListener(f -> {
+            task.cancel(false);
+            live.remove(sample);
+            long bdp = sample.bdp();
+            if (target != null && bdp > 0) {
+                recent.put(target, new Recent(bdp, System.nanoTime()));
+            }
+        });
+        return sample;
+    }
+
+    private void collect(QuicChannel channel, Sample sample) {
+        if (!channel.isActive()) {
+            return;
+        }
+        sample.streamsLeft = channel.peerAllowedStreams(QuicStreamType.BIDIRECTIONAL);
+        channel.collectStats().addListener(f -> {
+            if (f.isSuccess()) {
+                QuicConnectionStats stats = (QuicConnectionStats) f.getNow();
+                long sent = stats.sent() - sample.lastSent;
+                long lost = stats.lost() - sample.lastLost;
+                sample.lastSent = stats.sent();
+                sample.lastLost = stats.lost();
+                sample.lossRatio = sent > 0 ? (double) lost / sent : 0;
+                sentPackets.add(sent);
+                lostPackets.add(lost);
+            }
+        });
+        channel.collectPathStats(0).addListener(f -> {
+            if (f.isSuccess()) {
+                QuicConnectionPathStats stats = (QuicConnectionPathStats) f.getNow();
+                sample.cwnd = stats.cwnd();
+                sample.rttNanos = stats.rtt();
+                sample.deliveryRate = stats.deliveryRate();
+                rtt.observeNanos(stats.rtt());
+            }
+        });
+    }
+
+    private record Recent(long bdp, long at) {
+    }
+
+    public static final class Sample {
+        private volatile long streamsLeft = Long.MAX_VALUE;
+        private volatile long cwnd;
+        private volatile long rttNanos;
+        private volatile long deliveryRate;
+        private volatile double lossRatio;
+        // 只在连接的EventLoop中访问
+        private long lastSent;
+        private long lastLost;
+
+        public long streamsLeft() {
+            return streamsLeft;
+        }
+
+        // 创建stream失败时立即标记额度用完，下一次采集时再按实际值更新
+        public void streamCreditExhausted() {
+            streamsLeft = 0;
+        }
+
+        public long cwnd() {
+            return cwnd;
+        }
+
+        public long rttNanos() {
+            return rttNanos;
+        }
+
+        // 每秒字节数
+        public long deliveryRate() {
+            return deliveryRate;
+        }
+
+        public double lossRatio() {
+            return lossRatio;
+        }
+
+        // 拥塞窗口和 发送速率×RTT 中较大者，假设上下行路径对称
+        public long bdp() {
+            return Math.max(cwnd, (long) (deliveryRate * (rttNanos / 1e9)));
+        }
+    }
+}
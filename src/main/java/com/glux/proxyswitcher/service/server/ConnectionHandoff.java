@@ -0,0 +1,227 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.incubator.codec.quic.QuicConnectionIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 新旧两个服务端进程通过SO_REUSEPORT绑定同一端口时，内核按四元组在所有socket间分配数据包，
+// 旧进程的一部分连接的包会被送到新进程。每个进程在连接ID的最后一个字节写入自己的代号，
+// 收到其他代号的包时经本机UDP端口转交给对应进程，由它按原来的来源地址交给codec处理，回复从同一端口发出。
+// 排空期间新的Initial包转交给另一个代号，部署时新旧进程的代号在0和1之间交替
+public class ConnectionHandoff {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionHandoff.class);
+
+    public static final int GENERATION = Integer.getInteger("proxy.server.generation", 0) & 0xff;
+    // 代号为n的进程在127.0.0.1:(PORT+n)接收转交的包，0表示不启用
+    public static final int PORT = Integer.getInteger("proxy.server.handoffPort", 0);
+    // 单socket模式下的本地连接ID长度，转交时按此长度解析短包头
+    public static final int CONNECTION_ID_LENGTH = 20;
+
+    private static final Counter FORWARDED = ProxyMetrics.counter("quic_handoff_packets_total",
+            "Packets handed off between server generations", "direction", "out");
+    private static final Counter RECEIVED = ProxyMetrics.counter("quic_handoff_packets_total",
+            "Packets handed off between server generations", "direction", "in");
+
+    private final List<ChannelHandlerContext> sockets = new CopyOnWriteArrayList<>();
+    private volatile Channel handoffChannel;
+    private volatile boolean draining;
+
+    public static boolean enabled() {
+        return PORT > 0;
+    }
+
+    // 绑定本进程的转交端口。端口被占用(通常是代号与正在运行的进程相同)时不转交，只记录警告
+    public void start(EventLoopGroup group, Class<? extends Channel> channelClass) {
+        InetSocketAddress address = address(GENERATION);
+        try {
+            handoffChannel = new Bootstrap().group(group)
+                    .channel(channelClass)
+                    .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                        @Override
+                        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                            received(packet.content());
+                        }
+                    })
+                    .bind(address).sync().channel();
+            logger.info("Server: generation {}, handoff port {}.", GENERATION, address.getPort());
+        } catch (Exception e) {
+            logger.warn("Server: handoff port {} unavailable, handoff disabled.", address.getPort(), e);
+        }
+    }
+
+    public void drain() {
+        draining = true;
+    }
+
+    public void close() {
+        Channel channel = handoffChannel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // 在生成的连接ID最后一个字节写入代号，其余字节和幂等性由delegate决定
+    public static QuicConnectionIdGenerator idGenerator(QuicConnectionIdGenerator delegate) {
+        return new QuicConnectionIdGenerator() {
+            @Override
+            public ByteBuffer newId(int length) {
+                return tag(delegate.newId(length));
+            }
+
+            @Override
+            public ByteBuffer newId(ByteBuffer input, int length) {
+                return tag(delegate.newId(input, length));
+            }
+
+            @Override
+            public int maxConnectionIdLength() {
+                return delegate.maxConnectionIdLength();
+            }
+
+            @Override
+            public boolean isIdempotent() {
+                return delegate.isIdempotent();
+            }
+        };
+    }
+
+    private static ByteBuffer tag(ByteBuffer id) {
+        ByteBuffer copy = ByteBuffer.allocate(id.remaining());
+        copy.put(id.duplicate()).flip();
+        if (copy.hasRemaining()) {
+            copy.put(copy.limit() - 1, (byte) GENERATION);
+        }
+        return copy;
+    }
+
+    // 放在UDP channel中admission之前，每个socket一个实例
+    public ChannelHandler handler(int localConnectionIdLength) {
+        return new Steering(localConnectionIdLength);
+    }
+
+    private static InetSocketAddress address(int generation) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT + generation);
+    }
+
+    // 转交格式：地址长度(1) 地址 端口(2) 原始包
+    private void forward(DatagramPacket packet, int generation) {
+        Channel channel = handoffChannel;
+        if (channel == null) {
+            packet.release();
+            return;
+        }
+        InetSocketAddress sender = packet.sender();
+        byte[] ip = sender.getAddress().getAddress();
+        ByteBuf content = packet.content();
+        ByteBuf out = channel.alloc().directBuffer(3 + ip.length + content.readableBytes());
+        out.writeByte(ip.length).writeBytes(ip).writeShort(sender.getPort()).writeBytes(content);
+        packet.release();
+        FORWARDED.increment();
+        channel.writeAndFlush(new DatagramPacket(out, address(generation)));
+    }
+
+    private void received(ByteBuf buf) {
+        if (sockets.isEmpty() || !buf.isReadable()) {
+            return;
+        }
+        int ipLength = buf.readUnsignedByte();
+        if ((ipLength != 4 && ipLength != 16) || buf.readableBytes() < ipLength + 2) {
+            return;
+        }
+        byte[] ip = new byte[ipLength];
+        buf.readBytes(ip);
+        int port = buf.readUnsignedShort();
+        InetSocketAddress sender;
+        try {
+            sender = new InetSocketAddress(InetAddress.getByAddress(ip), port);
+        } catch (Exception e) {
+            return;
+        }
+        ByteBuf payload = buf.readRetainedSlice(buf.readableBytes());
+        RECEIVED.increment();
+        // 从pipeline头部重新进入，SO_REUSEPORT模式下由QuicCodecDispatcher路由到连接所在的socket
+        ChannelHandlerContext socket = sockets.get(ThreadLocalRandom.current().nextInt(sockets.size()));
+        Channel channel = socket.channel();
+        channel.eventLoop().execute(() -> {
+            channel.pipeline().fireChannelRead(
+                    new DatagramPacket(payload, (InetSocketAddress) channel.localAddress(), sender));
+            channel.pipeline().fireChannelReadComplete();
+        });
+    }
+
+    private class Steering extends ChannelInboundHandlerAdapter {
+        private final int localConnectionIdLength;
+
+        Steering(int localConnectionIdLength) {
+            this.localConnectionIdLength = localConnectionIdLength;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            sockets.add(ctx);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            sockets.remove(ctx);
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof DatagramPacket packet) {
+                int generation = owner(packet.content(), localConnectionIdLength, draining);
+                if (generation >= 0 && generation != GENERATION) {
+                    forward(packet, generation);
+                    return;
+                }
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    // 返回应处理该包的代号，-1表示由本进程处理。
+    // Initial和0-RTT包的dcid由客户端选择，不含代号；Handshake包和短包头的dcid是服务端生成的
+    static int owner(ByteBuf buf, int localConnectionIdLength, boolean draining) {
+        int i = buf.readerIndex();
+        int end = buf.writerIndex();
+        if (end - i < 1) {
+            return -1;
+        }
+        int flags = buf.getUnsignedByte(i);
+        if ((flags & 0x80) == 0) {
+            return end - i > localConnectionIdLength ? buf.getUnsignedByte(i + localConnectionIdLength) : -1;
+        }
+        if (end - i < 6 || buf.getInt(i + 1) != 1) {
+            return -1;
+        }
+        int type = (flags & 0x30) >> 4;
+        if (type == 0 || type == 1) {
+            return draining ? GENERATION ^ 1 : -1;
+        }
+        int dcidLength = buf.getUnsignedByte(i + 5);
+        if (dcidLength != localConnectionIdLength || end - i < 6 + dcidLength) {
+            return -1;
+        }
+        return buf.getUnsignedByte(i + 5 + dcidLength);
+    }
+}
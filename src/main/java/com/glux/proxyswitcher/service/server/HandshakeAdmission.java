@@ -0,0 +1,221 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.incubator.codec.quic.QuicConnectionIdGenerator;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 握手准入控制，放在UDP channel中QUIC codec之前，只检查Initial包：
+// 每个来源网段(IPv4 /24，IPv6 /48)一个令牌桶，超出速率的Initial直接丢弃；
+// 未完成的握手超过retryThreshold时要求新连接先通过Retry验证地址，超过maxInFlight时丢弃新连接不带token的Initial。
+// 已经开始的握手后续的Initial包以服务端生成的连接ID为dcid，不受maxInFlight限制；已经建立的连接不发送Initial包
+@ChannelHandler.Sharable
+public class HandshakeAdmission extends ChannelInboundHandlerAdapter {
+
+    public static final int RETRY_THRESHOLD = Integer.getInteger("quic.admission.retryThreshold", 128);
+    public static final int MAX_IN_FLIGHT = Integer.getInteger("quic.admission.maxInFlight", 1024);
+    // 每个网段每秒允许的Initial包数和突发量，一次握手通常有2-4个Initial包
+    public static final double PREFIX_RATE = Double.parseDouble(System.getProperty("quic.admission.prefixRate", "50"));
+    public static final double PREFIX_BURST = Double.parseDouble(System.getProperty("quic.admission.prefixBurst", "200"));
+    // 伪造来源时网段数量不受控制，达到上限后先淘汰已经补满的令牌桶，仍然没有空位时新的网段共用一个令牌桶
+    private static final int MAX_PREFIXES = 100_000;
+    private static final long IDLE_PREFIX_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // 超过该时间没有Initial包的令牌桶已经补满，删除后重新创建的效果相同
+    private static final long REFILLED_PREFIX_NANOS = (long) (TimeUnit.SECONDS.toNanos(1) * PREFIX_BURST / PREFIX_RATE);
+    private static final long EVICT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // 服务端生成的连接ID保留的时间和数量，足够覆盖握手期间的Initial包
+    private static final long ISSUED_ID_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_ISSUED_IDS = Math.max(4096, MAX_IN_FLIGHT * 4);
+
+    private static final AttributeKey<Boolean> PENDING = AttributeKey.valueOf(HandshakeAdmission.class, "pending");
+
+    private static final Counter PREFIX_DROPPED = ProxyMetrics.counter("quic_admission_dropped_total",
+            "Initial packets dropped by handshake admission control", "reason", "prefix_rate");
+    private static final Counter OVERLOAD_DROPPED = ProxyMetrics.counter("quic_admission_dropped_total",
+            "Initial packets dropped by handshake admission control", "reason", "in_flight");
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final TokenBucket overflow = new TokenBucket(PREFIX_RATE * 10, PREFIX_BURST * 10);
+    private final AtomicLong evictedAt = new AtomicLong(System.nanoTime() - EVICT_INTERVAL_NANOS);
+    // codec为Initial包生成的本地连接ID到生成时间
+    private final Map<ByteBuffer, Long> issued = new ConcurrentHashMap<>();
+
+    public HandshakeAdmission() {
+        ProxyMetrics.gauge("quic_handshakes_in_flight", "Server QUIC handshakes not yet completed", inFlight::get);
+    }
+
+    // 在executor上定期清理长时间没有Initial包的网段
+    public void cleanup(EventExecutorGroup executor) {
+        executor.scheduleAtFixedRate(() -> {
+            long idleBefore = System.nanoTime() - IDLE_PREFIX_NANOS;
+            buckets.values().removeIf(bucket -> bucket.lastRefill() - idleBefore < 0);
+        }, 1, 1, TimeUnit.MINUTES);
+        executor.scheduleAtFixedRate(() -> {
+            long issuedBefore = System.nanoTime() - ISSUED_ID_NANOS;
+            issued.values().removeIf(at -> at - issuedBefore < 0);
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    // 记录codec为新连接(以及Retry)生成的连接ID，客户端之后的Initial包以它为dcid，据此区分已经开始的握手。
+    // 连接建立后新发布的连接ID(newId(length))不经过Initial包，不记录
+    public QuicConnectionIdGenerator idGenerator(QuicConnectionIdGenerator delegate) {
+        return new QuicConnectionIdGenerator() {
+            @Override
+            public ByteBuffer newId(int length) {
+                return delegate.newId(length);
+            }
+
+            @Override
+            public ByteBuffer newId(ByteBuffer input, int length) {
+                ByteBuffer id = delegate.newId(input, length);
+                if (issued.size() < MAX_ISSUED_IDS) {
+                    ByteBuffer copy = ByteBuffer.allocate(id.remaining());
+                    copy.put(id.duplicate()).flip();
+                    issued.put(copy, System.nanoTime());
+                }
+                return id;
+            }
+
+            @Override
+            public int maxConnectionIdLength() {
+                return delegate.maxConnectionIdLength();
+            }
+
+            @Override
+            public boolean isIdempotent() {
+                return delegate.isIdempotent();
+            }
+        };
+    }
+
+    boolean requireRetry() {
+        return inFlight.get() >= RETRY_THRESHOLD;
+    }
+
+    // 在QuicChannel创建时调用，握手完成或连接关闭时调用handshakeEnded
+    void handshakeStarted(Channel channel) {
+        channel.attr(PENDING).set(Boolean.TRUE);
+        inFlight.incrementAndGet();
+    }
+
+    void handshakeEnded(Channel channel) {
+        if (channel.attr(PENDING).getAndSet(null) != null) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof DatagramPacket packet && !admit(packet)) {
+            packet.release();
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private boolean admit(DatagramPacket packet) {
+        ByteBuf buf = packet.content();
+        int tokenLength = initialTokenLength(buf);
+        if (tokenLength < 0) {
+            return true;
+        }
+        if (!bucket(packet.sender().getAddress()).tryAcquire()) {
+            PREFIX_DROPPED.increment();
+            return false;
+        }
+        // 带token的Initial由token handler验证，验证通过说明地址真实
+        if (tokenLength == 0 && inFlight.get() >= MAX_IN_FLIGHT && !issued(buf)) {
+            OVERLOAD_DROPPED.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Initial包的dcid是否是本服务端生成的连接ID，调用前已由initialTokenLength检查过包头
+    private boolean issued(ByteBuf buf) {
+        int i = buf.readerIndex() + 5;
+        return issued.containsKey(buf.nioBuffer(i + 1, buf.getUnsignedByte(i)));
+    }
+
+    private TokenBucket bucket(InetAddress address) {
+        long prefix = prefix(address.getAddress());
+        TokenBucket bucket = buckets.get(prefix);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_PREFIXES && !evictRefilled()) {
+                return overflow;
+            }
+            bucket = buckets.computeIfAbsent(prefix, p -> new TokenBucket(PREFIX_RATE, PREFIX_BURST));
+        }
+        return bucket;
+    }
+
+    // 删除已经补满的令牌桶，返回是否腾出了空位。每秒最多扫描一次，避免伪造来源时每个包都遍历全部网段
+    private boolean evictRefilled() {
+        long now = System.nanoTime();
+        long last = evictedAt.get();
+        if (now - last >= EVICT_INTERVAL_NANOS && evictedAt.compareAndSet(last, now)) {
+            long refilledBefore = now - REFILLED_PREFIX_NANOS;
+            buckets.values().removeIf(bucket -> bucket.lastRefill() - refilledBefore < 0);
+        }
+        return buckets.size() < MAX_PREFIXES;
+    }
+
+    // IPv4取前3字节，IPv6取前6字节，最高字节区分地址类型
+    private static long prefix(byte[] ip) {
+        int length = ip.length == 4 ? 3 : 6;
+        long prefix = ip.length;
+        for (int i = 0; i < length; i++) {
+            prefix = (prefix << 8) | (ip[i] & 0xff);
+        }
+        return prefix;
+    }
+
+    // QUIC v1 Initial包: flags(1) version(4) dcidLen(1) dcid scidLen(1) scid tokenLen(varint) token ...
+    // 返回token长度，不是v1 Initial包或格式错误时返回-1
+    static int initialTokenLength(ByteBuf buf) {
+        int i = buf.readerIndex();
+        int end = buf.writerIndex();
+        if (end - i < 7) {
+            return -1;
+        }
+        int flags = buf.getUnsignedByte(i);
+        if ((flags & 0x80) == 0 || (flags & 0x30) != 0 || buf.getInt(i + 1) != 1) {
+            return -1;
+        }
+        i += 5;
+        i += 1 + buf.getUnsignedByte(i);
+        if (i >= end) {
+            return -1;
+        }
+        i += 1 + buf.getUnsignedByte(i);
+        if (i >= end) {
+            return -1;
+        }
+        int first = buf.getUnsignedByte(i);
+        int varintLength = 1 << (first >> 6);
+        if (i + varintLength > end) {
+            return -1;
+        }
+        long length = first & 0x3f;
+        for (int j = 1; j < varintLength; j++) {
+            length = (length << 8) | buf.getUnsignedByte(i + j);
+        }
+        return length > end - i ? -1 : (int) length;
+    }
+}
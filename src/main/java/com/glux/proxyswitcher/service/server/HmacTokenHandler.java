@@ -0,0 +1,139 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.incubator.codec.quic.QuicTokenHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+
+// 无状态的Retry token：keyId(1) 过期时间(8) HMAC(16) 原始dcid。
+// HMAC覆盖过期时间、客户端地址和dcid，密钥定期轮换，上一个密钥在下一次轮换前仍可验证。
+// 是否发送Retry由HandshakeAdmission按当前负载决定，负载低时新连接不多一个往返
+public class HmacTokenHandler implements QuicTokenHandler {
+
+    public static final long LIFETIME_SECONDS = Long.getLong("quic.token.lifetimeSeconds", 10);
+    public static final long ROTATE_SECONDS = Long.getLong("quic.token.rotateSeconds", 600);
+
+    private static final int MAC_LENGTH = 16;
+    private static final int HEADER_LENGTH = 1 + 8 + MAC_LENGTH;
+    // QUIC v1连接ID最长20字节
+    private static final int MAX_CID_LENGTH = 20;
+
+    private static final Counter RETRIES = ProxyMetrics.counter("quic_retries_sent_total",
+            "Retry packets sent to validate client addresses");
+    private static final Counter INVALID = ProxyMetrics.counter("quic_invalid_tokens_total",
+            "Initial packets dropped because their token did not validate");
+
+    private static final FastThreadLocal<Mac> MAC = new FastThreadLocal<>() {
+        @Override
+        protected Mac initialValue() throws NoSuchAlgorithmException {
+            return Mac.getInstance("HmacSHA256");
+        }
+    };
+
+    private final BooleanSupplier requireRetry;
+    private final SecureRandom random = new SecureRandom();
+    // keys[keyId]，轮换时替换较旧的一个。轮换在executor上进行，验证在各EventLoop上进行，
+    // 验证时按token中的keyId取密钥，不经过currentKeyId，所以每个元素都需要volatile语义
+    private final AtomicReferenceArray<SecretKeySpec> keys = new AtomicReferenceArray<>(2);
+    private volatile int currentKeyId;
+
+    public HmacTokenHandler(HandshakeAdmission admission) {
+        this(admission::requireRetry);
+    }
+
+    HmacTokenHandler(BooleanSupplier requireRetry) {
+        this.requireRetry = requireRetry;
+        keys.set(0, newKey());
+        keys.set(1, newKey());
+    }
+
+    // 在executor上定期轮换密钥，executor关闭时停止
+    public void rotate(EventExecutorGroup executor) {
+        executor.scheduleAtFixedRate(() -> {
+            int next = currentKeyId ^ 1;
+            keys.set(next, newKey());
+            currentKeyId = next;
+        }, ROTATE_SECONDS, ROTATE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean writeToken(ByteBuf out, ByteBuf dcid, InetSocketAddress address) {
+        if (!requireRetry.getAsBoolean()) {
+            return false;
+        }
+        int keyId = currentKeyId;
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LIFETIME_SECONDS);
+        out.writeByte(keyId).writeLong(expiresAt);
+        out.writeBytes(mac(keyId, expiresAt, address, dcid, dcid.readerIndex(), dcid.readableBytes()));
+        out.writeBytes(dcid, dcid.readerIndex(), dcid.readableBytes());
+        RETRIES.increment();
+        return true;
+    }
+
+    @Override
+    public int validateToken(ByteBuf token, InetSocketAddress address) {
+        int start = token.readerIndex();
+        int dcidLength = token.readableBytes() - HEADER_LENGTH;
+        if (dcidLength < 0 || dcidLength > MAX_CID_LENGTH) {
+            INVALID.increment();
+            return -1;
+        }
+        int keyId = token.getUnsignedByte(start);
+        long expiresAt = token.getLong(start + 1);
+        if (keyId > 1 || expiresAt < System.currentTimeMillis()) {
+            INVALID.increment();
+            return -1;
+        }
+        byte[] expected = mac(keyId, expiresAt, address, token, start + HEADER_LENGTH, dcidLength);
+        byte[] actual = new byte[MAC_LENGTH];
+        token.getBytes(start + 9, actual);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            INVALID.increment();
+            return -1;
+        }
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public int maxTokenLength() {
+        return HEADER_LENGTH + MAX_CID_LENGTH;
+    }
+
+    private byte[] mac(int keyId, long expiresAt, InetSocketAddress address, ByteBuf dcid, int index, int length) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(keys.get(keyId));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (expiresAt >>> shift));
+        }
+        mac.update(address.getAddress().getAddress());
+        mac.update((byte) (address.getPort() >>> 8));
+        mac.update((byte) address.getPort());
+        mac.update(dcid.nioBuffer(index, length));
+        byte[] full = mac.doFinal();
+        byte[] truncated = new byte[MAC_LENGTH];
+        System.arraycopy(full, 0, truncated, 0, MAC_LENGTH);
+        return truncated;
+    }
+
+    private SecretKeySpec newKey() {
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        return new SecretKeySpec(key, "HmacSHA256");
+    }
+}
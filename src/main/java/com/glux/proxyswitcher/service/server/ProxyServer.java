@@ -1,30 +1,69 @@
 package com.glux.proxyswitcher.service.server;
 
 import com.glux.proxyswitcher.service.client.AutoConnectQuicConnection;
-import com.glux.proxyswitcher.service.cert.CertificateUtil;
+import com.glux.proxyswitcher.service.cert.SslContextProvider;
+import com.glux.proxyswitcher.service.common.CongestionControlProfile;
+import com.glux.proxyswitcher.service.common.DestinationAllowlist;
+import com.glux.proxyswitcher.service.common.FlowControlWindows;
+import com.glux.proxyswitcher.service.common.Forwarder;
+import com.glux.proxyswitcher.service.common.ImpairmentHandler;
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.common.UdpOffload;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.incubator.codec.quic.InsecureQuicTokenHandler;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.incubator.codec.quic.QuicCodecDispatcher;
+import io.netty.incubator.codec.quic.QuicConnectionIdGenerator;
 import io.netty.incubator.codec.quic.QuicServerCodecBuilder;
-import io.netty.incubator.codec.quic.QuicSslContext;
 import io.netty.incubator.codec.quic.QuicStreamChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
 
 public class ProxyServer {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyServer.class);
+
+    // 大于1时使用SO_REUSEPORT在同一端口绑定多个UDP socket，每个socket一个EventLoop(需要epoll)
+    public static final int SOCKETS = Integer.getInteger("proxy.server.sockets", 1);
+    public static final int QUIC_THREADS = Integer.getInteger("proxy.server.quicThreads", 4);
+    public static final int TCP_THREADS = Integer.getInteger("proxy.server.tcpThreads", 4);
+    // 目标TCP连接注册到对应stream所在的EventLoop上，数据转发不再跨线程
+    public static final boolean COLOCATE = Boolean.getBoolean("proxy.server.colocate");
+    // 代理端可以指定的目标，为空时只能访问启动参数中的默认目标
+    public static final DestinationAllowlist ALLOWLIST =
+            DestinationAllowlist.parse(System.getProperty("proxy.server.allow", ""));
+    // 除默认目标外还需要预连接池的目标，逗号分隔的host:port，proxy.server.pool.min大于0时生效
+    public static final String POOL_TARGETS = System.getProperty("proxy.server.pool.targets", "");
+    // 单socket模式也设置SO_REUSEPORT，重启时新进程可以在旧进程排空期间绑定同一端口
+    public static final boolean REUSE_PORT = Boolean.getBoolean("proxy.server.reusePort");
+
     private final String quicHost;
     private final int quicPort;
     private final String targetHost;
     private final int targetPort;
     private Bootstrap quicServerBootstrap;
-    private EventLoopGroup group = new NioEventLoopGroup(4);
-    private Bootstrap tcpClientBootstrap = new Bootstrap();
-    private EventLoopGroup tcpClientEventGroup = new NioEventLoopGroup(4);
+    private EventLoopGroup group;
+    private EventLoopGroup tcpClientEventGroup;
+    private TargetConnector connector;
+    private HandshakeAdmission admission;
+    private HmacTokenHandler tokenHandler;
+    private TunnelLimits limits;
+    private ServerDrain drain;
+    private final ConnectionHandoff handoff = new ConnectionHandoff();
 
     public ProxyServer(String quicHost, int quicPort, String targetHost, int targetPort) {
         this.quicHost = quicHost;
@@ -34,38 +73,165 @@ public class ProxyServer {
     }
 
     public void start() throws Exception {
-        tcpClientBootstrap.group(tcpClientEventGroup);
-        quicServerBootstrap = new Bootstrap();
-        QuicSslContext sslContext = CertificateUtil.createServerSslContext();
+        boolean useEpoll = Epoll.isAvailable();
+        quicServerBootstrap = UdpOffload.configure(new Bootstrap());
+        SslContextProvider sslContexts = SslContextProvider.server();
+        // 启动时构建一次，证书文件错误时直接启动失败
+        sslContexts.get();
+        if (!COLOCATE) {
+            tcpClientEventGroup = useEpoll ? new EpollEventLoopGroup(TCP_THREADS) : new NioEventLoopGroup(TCP_THREADS);
+        }
+        connector = new TargetConnector(tcpClientEventGroup,
+                useEpoll ? EpollSocketChannel.class : NioSocketChannel.class,
+                useEpoll ? EpollDatagramChannel.class : NioDatagramChannel.class);
+        admission = new HandshakeAdmission();
+        tokenHandler = new HmacTokenHandler(admission);
+        limits = new TunnelLimits();
+        drain = new ServerDrain(limits);
+        ChannelHandler streamHandler = new ChannelInitializer<QuicStreamChannel>() {
+            @Override
+            protected void initChannel(QuicStreamChannel ch) {
+                ch.pipeline().addLast(new StreamHeaderDecoder(),
+                        new QuicToTcpHandler(targetHost, targetPort, ALLOWLIST, connector, limits));
+            }
+        };
 
-        ChannelHandler codec = new QuicServerCodecBuilder()
-                .sslContext(sslContext)
-                .maxIdleTimeout(AutoConnectQuicConnection.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                .initialMaxData(10000000)
-                .initialMaxStreamDataBidirectionalLocal(1000000)
-                .initialMaxStreamDataBidirectionalRemote(1000000)
-                .initialMaxStreamsBidirectional(1000)
-                .maxIdleTimeout(10, TimeUnit.SECONDS)
-                .tokenHandler(InsecureQuicTokenHandler.INSTANCE)
-                .handler(new SharedServerQuicChannelHandler())
-                .streamHandler(new ChannelInitializer<QuicStreamChannel>() {
+        if (SOCKETS > 1 && useEpoll) {
+            startReusePort(sslContexts, streamHandler);
+        } else {
+            if (SOCKETS > 1) {
+                logger.warn("Server: epoll is not available, SO_REUSEPORT mode disabled.");
+            }
+            group = useEpoll ? new EpollEventLoopGroup(QUIC_THREADS) : new NioEventLoopGroup(QUIC_THREADS);
+            if (REUSE_PORT && useEpoll) {
+                quicServerBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            QuicServerCodecBuilder builder = codecBuilder(sslContexts, streamHandler);
+            QuicConnectionIdGenerator idGenerator = QuicConnectionIdGenerator.signGenerator();
+            if (ConnectionHandoff.enabled()) {
+                builder.localConnectionIdLength(ConnectionHandoff.CONNECTION_ID_LENGTH);
+                idGenerator = ConnectionHandoff.idGenerator(idGenerator);
+            }
+            builder.connectionIdAddressGenerator(admission.idGenerator(idGenerator));
+            Channel channel = quicServerBootstrap.group(group)
+                    .channel(useEpoll ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                    .handler(datagramPipeline(builder.build()))
+                    .bind(new InetSocketAddress(quicHost, quicPort))
+                    .sync().channel();
+            logger.info("Server: UDP offload {}", UdpOffload.report(channel, "server"));
+        }
+
+        if (TargetPool.MIN_IDLE > 0) {
+            // colocate模式下没有独立的TCP线程，池中连接分布在QUIC线程上
+            EventLoopGroup poolGroup = tcpClientEventGroup != null ? tcpClientEventGroup : group;
+            connector.enablePool(targetHost, targetPort, poolGroup);
+            for (String target : POOL_TARGETS.split(",")) {
+                target = target.trim();
+                int colon = target.lastIndexOf(':');
+                if (colon > 0) {
+                    connector.enablePool(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)),
+                            poolGroup);
+                }
+            }
+        }
+
+        if (ConnectionHandoff.enabled()) {
+            handoff.start(group, useEpoll ? EpollDatagramChannel.class : NioDatagramChannel.class);
+        }
+        sslContexts.watch();
+        tokenHandler.rotate(group);
+        admission.cleanup(group);
+        limits.cleanup(group);
+        ProxyMetrics.eventLoopGroup("server-quic", group);
+        if (tcpClientEventGroup != null) {
+            ProxyMetrics.eventLoopGroup("server-tcp", tcpClientEventGroup);
+        }
+        logger.info("Server: congestion control {}", CongestionControlProfile.describe());
+        if (ImpairmentHandler.enabled()) {
+            logger.warn("Server: network impairment emulation is enabled.");
+        }
+        System.out.println("服务端启动，监听QUIC端口: " + quicPort);
+    }
+
+    private void startReusePort(SslContextProvider sslContexts, ChannelHandler streamHandler) throws Exception {
+        group = new EpollEventLoopGroup(SOCKETS);
+        quicServerBootstrap.group(group)
+                .channel(EpollDatagramChannel.class)
+                .option(EpollChannelOption.SO_REUSEPORT, true)
+                // 多个socket绑定同一端口，由QuicCodecDispatcher把同一连接的包路由到对应的codec
+                .handler(new QuicCodecDispatcher() {
                     @Override
-                    protected void initChannel(QuicStreamChannel ch) {
-                        ch.pipeline().addLast(new QuicToTcpHandler(targetHost, targetPort, tcpClientEventGroup));
+                    protected void initChannel(Channel channel, int localConnectionIdLength,
+                                               QuicConnectionIdGenerator idGenerator) {
+                        if (ImpairmentHandler.enabled()) {
+                            channel.pipeline().addLast(new ImpairmentHandler());
+                        }
+                        if (ConnectionHandoff.enabled()) {
+                            channel.pipeline().addLast(handoff.handler(localConnectionIdLength));
+                        }
+                        channel.pipeline().addLast(admission);
+                        channel.pipeline().addLast(codecBuilder(sslContexts, streamHandler)
+                                .localConnectionIdLength(localConnectionIdLength)
+                                .connectionIdAddressGenerator(admission.idGenerator(ConnectionHandoff.enabled()
+                                        ? ConnectionHandoff.idGenerator(idGenerator) : idGenerator))
+                                .build());
                     }
-                })
-                .build();
+                });
+        InetSocketAddress bindAddress = new InetSocketAddress(quicHost, quicPort);
+        String offload = null;
+        for (int i = 0; i < SOCKETS; i++) {
+            offload = UdpOffload.report(quicServerBootstrap.bind(bindAddress).sync().channel(), "server");
+        }
+        logger.info("Server: UDP offload {}", offload);
+    }
 
-        quicServerBootstrap.group(group)
-                .channel(NioDatagramChannel.class)
-                .handler(codec)
-                .bind(new InetSocketAddress(quicHost, quicPort))
-                .sync();
+    private QuicServerCodecBuilder codecBuilder(SslContextProvider sslContexts, ChannelHandler streamHandler) {
+        // 服务端codec的参数对所有连接生效，只能使用配置的初始窗口
+        FlowControlWindows windows = FlowControlWindows.initial();
+        return UdpOffload.apply(CongestionControlProfile.apply(new QuicServerCodecBuilder()))
+                // 每个新连接从provider取当前的context，证书更新后不影响已建立的连接
+                .sslEngineProvider(q -> sslContexts.current().newEngine(q.alloc()))
+                .maxIdleTimeout(AutoConnectQuicConnection.IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .initialMaxData(windows.connection())
+                .initialMaxStreamDataBidirectionalLocal(windows.stream())
+                .initialMaxStreamDataBidirectionalRemote(windows.stream())
+                .initialMaxStreamsBidirectional(1000)
+                .datagram(QuicDatagrams.RECV_QUEUE_LENGTH, QuicDatagrams.SEND_QUEUE_LENGTH)
+                .tokenHandler(tokenHandler)
+                .handler(new SharedServerQuicChannelHandler(targetHost, targetPort, connector, admission,
+                        drain))
+                .streamOption(ChannelOption.WRITE_BUFFER_WATER_MARK, Forwarder.WRITE_BUFFER_WATER_MARK)
+                .streamHandler(streamHandler);
+    }
 
-        System.out.println("服务端启动，监听QUIC端口: " + quicPort);
+    private ChannelHandler datagramPipeline(ChannelHandler codec) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                if (ImpairmentHandler.enabled()) {
+                    ch.pipeline().addLast(new ImpairmentHandler());
+                }
+                if (ConnectionHandoff.enabled()) {
+                    ch.pipeline().addLast(handoff.handler(ConnectionHandoff.CONNECTION_ID_LENGTH));
+                }
+                ch.pipeline().addLast(admission, codec);
+            }
+        };
+    }
+
+    // 排空期间本进程仍然处理已有连接的包，新连接交给同端口上的新进程
+    public void drain(long timeoutSeconds) throws InterruptedException {
+        if (drain == null) {
+            return;
+        }
+        handoff.drain();
+        drain.drain(timeoutSeconds);
     }
 
     public void stop() {
+        handoff.close();
+        if (connector != null) connector.close();
         if (group != null) group.shutdownGracefully();
+        if (tcpClientEventGroup != null) tcpClientEventGroup.shutdownGracefully();
     }
-}
\ No newline at end of file
+}
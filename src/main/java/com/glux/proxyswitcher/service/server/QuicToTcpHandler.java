@@ -1,81 +1,195 @@
 package com.glux.proxyswitcher.service.server;
 
-import io.netty.bootstrap.Bootstrap;
+import com.glux.proxyswitcher.service.common.DestinationAllowlist;
+import com.glux.proxyswitcher.service.common.Forwarder;
+import com.glux.proxyswitcher.service.common.ProxyErrorCodes;
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import com.glux.proxyswitcher.service.common.StreamScheduler;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayDeque;
 
 public class QuicToTcpHandler extends ChannelInboundHandlerAdapter {
     public static final Logger logger = LoggerFactory.getLogger(QuicToTcpHandler.class);
+
+    // 目标连接建立前每个stream最多缓存的字节数，超过后暂停读取stream
+    public static final int MAX_PENDING_BYTES = Integer.getInteger("proxy.server.pendingBytes", 256 * 1024);
+
     private final String targetHost;
     private final int targetPort;
-    private final EventLoopGroup group;
-    private final CompletableFuture<Channel> tcpChannel = new CompletableFuture<>();
-    private ChannelFuture channelFuture;
+    private final DestinationAllowlist allowlist;
+    private final TargetConnector connector;
+    private final TunnelLimits limits;
+    private final ArrayDeque<Object> pendingWrites = new ArrayDeque<>();
+    private int pendingBytes;
+    private Channel tcpChannel;
+    private volatile Forwarder streamToTcp;
+    private Forwarder tcpToStream;
+    private boolean streamClosed;
+    private boolean tunnelAcquired;
 
-    public QuicToTcpHandler(String targetHost, int targetPort, EventLoopGroup group) {
+    // targetHost/targetPort是代理端没有指定目标时使用的默认目标
+    public QuicToTcpHandler(String targetHost, int targetPort, DestinationAllowlist allowlist,
+                            TargetConnector connector, TunnelLimits limits) {
         this.targetHost = targetHost;
         this.targetPort = targetPort;
-        this.group = group;
+        this.allowlist = allowlist;
+        this.connector = connector;
+        this.limits = limits;
     }
 
     @Override
     public void channelActive(ChannelHandlerContext quicCtx) throws Exception {
-        channelFuture = new Bootstrap().group(group)
-                .channel(NioSocketChannel.class)
-                .handler(new ChannelInitializer<SocketChannel>() {
+        ProxyMetrics.SERVER_STREAM_OPENS.increment();
+        int error = limits.acquireTunnel((QuicStreamChannel) quicCtx.channel());
+        if (error != 0) {
+            logger.info("Server: stream rejected by overload limits, code {}.", error);
+            reject(quicCtx, error);
+            return;
+        }
+        tunnelAcquired = true;
+        ProxyMetrics.SERVER_ACTIVE_TUNNELS.increment();
+        super.channelActive(quicCtx);
+    }
+
+    // 在连接目标之前拒绝，代理端立即收到错误码而不是等待超时
+    private void reject(ChannelHandlerContext quicCtx, int error) {
+        streamClosed = true;
+        ((QuicStreamChannel) quicCtx.channel()).shutdown(error).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    // 收到StreamHeader后才知道要连接的目标
+    private void connect(ChannelHandlerContext quicCtx, StreamHeader header) {
+        String host = header.isDefaultTarget() ? targetHost : header.host();
+        int port = header.isDefaultTarget() ? targetPort : header.port();
+        if (!header.isDefaultTarget() && !allowlist.allows(host, port)) {
+            logger.info("Server: destination {} is not allowed.", header);
+            ProxyMetrics.DESTINATION_DENIED.increment();
+            ((QuicStreamChannel) quicCtx.channel()).shutdown(ProxyErrorCodes.DESTINATION_NOT_ALLOWED)
+                    .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        if (!limits.acquireConnect()) {
+            logger.info("Server: too many pending target connects, rejecting {}.", header);
+            reject(quicCtx, ProxyErrorCodes.OVERLOADED);
+            return;
+        }
+        long connectStart = System.nanoTime();
+        Future<Channel> channelFuture = connector.connect(quicCtx.channel(), host, port,
+                new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
+                        Forwarder forwarder = new Forwarder(ch, quicCtx.channel(), ProxyMetrics.SERVER_BYTES_DOWNSTREAM);
                         ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
                             @Override
                             public void channelRead(ChannelHandlerContext ctx, Object msg) {
                                 logger.info("Server: stream sent client.");
-                                quicCtx.writeAndFlush(msg);
+                                forwarder.forward(msg);
+                            }
+
+                            @Override
+                            public void channelReadComplete(ChannelHandlerContext ctx) {
+                                forwarder.readComplete();
+                            }
+
+                            @Override
+                            public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                                if (streamToTcp != null) {
+                                    streamToTcp.destinationWritabilityChanged();
+                                }
+                                super.channelWritabilityChanged(ctx);
                             }
 
                             @Override
                             public void channelInactive(ChannelHandlerContext ctx) {
                                 logger.info("Server: tcp to target closed.");
+                                forwarder.close();
                                 quicCtx.close();
                             }
                         });
                     }
-                })
-                .connect(targetHost, targetPort);
-
-        channelFuture
-                .addListener((ChannelFutureListener) future -> {
-                    if (future.isSuccess()) {
-                        logger.info("Server: tcp to target open success.");
-                        tcpChannel.complete(future.channel());
-                    } else {
-                        logger.info("Server: tcp to target open failed.");
-                        tcpChannel.completeExceptionally(new IllegalArgumentException("TCP channel failed."));
-                        quicCtx.close();
-                    }
-                }).await();
+                });
+
+        // 连接结果在stream所在的EventLoop上通知，不会跨线程访问状态
+        channelFuture.addListener(future -> {
+            limits.releaseConnect();
+            ProxyMetrics.TARGET_CONNECT_SECONDS.observeNanos(System.nanoTime() - connectStart);
+            targetConnected(quicCtx, channelFuture);
+        });
+    }
+
+    private void targetConnected(ChannelHandlerContext quicCtx, Future<Channel> future) {
+        if (!future.isSuccess()) {
+            logger.info("Server: tcp to target open failed.", future.cause());
+            ProxyMetrics.TARGET_CONNECT_FAILURES.increment();
+            releasePendingWrites();
+            if (!streamClosed) {
+                ((QuicStreamChannel) quicCtx.channel()).shutdown(ProxyErrorCodes.TARGET_CONNECT_FAILED)
+                        .addListener(ChannelFutureListener.CLOSE);
+            }
+            return;
+        }
+        Channel channel = future.getNow();
+        if (streamClosed) {
+            channel.close();
+            return;
+        }
+        logger.info("Server: tcp to target open success.");
+        tcpChannel = channel;
+        streamToTcp = new Forwarder(quicCtx.channel(), tcpChannel, ProxyMetrics.SERVER_BYTES_UPSTREAM);
+        tcpToStream = new Forwarder(tcpChannel, quicCtx.channel(), ProxyMetrics.SERVER_BYTES_DOWNSTREAM);
+        Object msg;
+        while ((msg = pendingWrites.poll()) != null) {
+            tcpChannel.write(msg);
+        }
+        pendingBytes = 0;
+        tcpChannel.flush();
+        streamToTcp.destinationWritabilityChanged();
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         logger.info("Server: stream received from client.");
-        try {
-            if (tcpChannel.get().isActive()) {
-                tcpChannel.get().writeAndFlush(msg);
+        if (msg instanceof StreamHeader header) {
+            if (!streamClosed) {
+                StreamScheduler.apply((QuicStreamChannel) ctx.channel(), header.trafficClass());
+                connect(ctx, header);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+            return;
+        }
+        if (streamToTcp != null) {
+            streamToTcp.forward(msg);
+            return;
+        }
+        if (streamClosed) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        pendingWrites.add(msg);
+        if (msg instanceof ByteBuf buf) {
+            pendingBytes += buf.readableBytes();
+        }
+        if (pendingBytes >= MAX_PENDING_BYTES) {
+            ctx.channel().config().setAutoRead(false);
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (tcpToStream != null) {
+            tcpToStream.destinationWritabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
         logger.info("Server: stream channelUnregistered.");
@@ -85,21 +199,35 @@ public class QuicToTcpHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
         logger.info("Server: stream channelReadComplete.");
+        if (streamToTcp != null) {
+            streamToTcp.readComplete();
+        }
         super.channelReadComplete(ctx);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         logger.info("Server: stream closed.");
-        try {
-            if (tcpChannel.get().isActive()) {
-                tcpChannel.get().close();
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        if (tunnelAcquired) {
+            tunnelAcquired = false;
+            ProxyMetrics.SERVER_ACTIVE_TUNNELS.decrement();
+            limits.releaseTunnel((QuicStreamChannel) ctx.channel());
+        }
+        streamClosed = true;
+        releasePendingWrites();
+        if (streamToTcp != null) {
+            streamToTcp.close();
+        }
+        if (tcpChannel != null && tcpChannel.isActive()) {
+            tcpChannel.close();
+        }
+    }
+
+    private void releasePendingWrites() {
+        Object msg;
+        while ((msg = pendingWrites.poll()) != null) {
+            ReferenceCountUtil.release(msg);
         }
+        pendingBytes = 0;
     }
-}
\ No newline at end of file
+}
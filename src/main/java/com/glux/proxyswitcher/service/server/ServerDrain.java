@@ -0,0 +1,99 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.common.ProxyErrorCodes;
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.incubator.codec.quic.QuicTransportParameters;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+// 服务端排空：停止接受新stream，向所有连接发送GOAWAY让代理端把新隧道转到其他连接，
+// 等待已有隧道结束，超过期限后以DRAINING关闭剩余连接。排空期间新建立的连接直接关闭。
+// GOAWAY是DATAGRAM帧，对端没有协商DATAGRAM时不发送，这类代理端在新stream被DRAINING重置后才换连接。
+// UDP flow没有结束标志，只在空闲超时后释放，不计入等待，关闭连接时直接中断
+public class ServerDrain {
+    private static final Logger logger = LoggerFactory.getLogger(ServerDrain.class);
+
+    // 收到停止信号后等待已有隧道结束的最长时间(秒)
+    public static final int DRAIN_SECONDS = Integer.getInteger("proxy.server.drainSeconds", 30);
+
+    private static final Counter GOAWAY_SENT = goaway("sent");
+    private static final Counter GOAWAY_FAILED = goaway("failed");
+    private static final Counter GOAWAY_UNSUPPORTED = goaway("unsupported");
+
+    private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final TunnelLimits limits;
+    private volatile boolean draining;
+
+    public ServerDrain(TunnelLimits limits) {
+        this.limits = limits;
+        ProxyMetrics.gauge("proxy_server_draining", "1 while the server is draining", () -> draining ? 1 : 0);
+    }
+
+    // 握手完成时调用
+    void connected(QuicChannel channel) {
+        connections.add(channel);
+        // 先加入再检查，与drain()并发时不会漏发GOAWAY也不会漏关
+        if (draining) {
+            close(channel);
+        }
+    }
+
+    boolean isDraining() {
+        return draining;
+    }
+
+    // 阻塞直到隧道全部结束或超过timeoutSeconds，之后关闭所有连接
+    public void drain(long timeoutSeconds) throws InterruptedException {
+        draining = true;
+        limits.drain();
+        logger.info("Server: draining {} connections, {} tunnels, {} UDP flows.",
+                connections.size(), limits.activeTunnels(), UdpFlows.activeFlows());
+        for (Channel channel : connections) {
+            goaway((QuicChannel) channel);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (limits.activeTunnels() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(100);
+        }
+        logger.info("Server: drain finished, closing {} connections with {} tunnels and {} UDP flows left.",
+                connections.size(), limits.activeTunnels(), UdpFlows.activeFlows());
+        for (Channel channel : connections) {
+            close((QuicChannel) channel);
+        }
+    }
+
+    private static void goaway(QuicChannel channel) {
+        QuicTransportParameters parameters = channel.peerTransportParameters();
+        if (parameters == null || parameters.maxDatagramFrameSize() <= 0) {
+            GOAWAY_UNSUPPORTED.increment();
+            logger.info("Server: {} did not negotiate DATAGRAM, GOAWAY not sent.", channel.remoteSocketAddress());
+            return;
+        }
+        channel.writeAndFlush(QuicDatagrams.goaway(channel.alloc())).addListener(f -> {
+            if (f.isSuccess()) {
+                GOAWAY_SENT.increment();
+            } else {
+                GOAWAY_FAILED.increment();
+                logger.warn("Server: GOAWAY to {} failed.", channel.remoteSocketAddress(), f.cause());
+            }
+        });
+    }
+
+    private static Counter goaway(String result) {
+        return ProxyMetrics.counter("proxy_goaway_total", "GOAWAY datagrams sent while draining", "result", result);
+    }
+
+    private static void close(QuicChannel channel) {
+        channel.close(true, ProxyErrorCodes.DRAINING, Unpooled.EMPTY_BUFFER);
+    }
+}
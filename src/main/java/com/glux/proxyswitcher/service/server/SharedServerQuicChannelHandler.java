@@ -1,8 +1,12 @@
 package com.glux.proxyswitcher.service.server;
 
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.metrics.QuicStatsTracker;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.incubator.codec.quic.QuicChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,9 +14,26 @@ import org.slf4j.LoggerFactory;
 public class SharedServerQuicChannelHandler extends ChannelInboundHandlerAdapter {
     private static final Logger logger = LoggerFactory.getLogger(SharedServerQuicChannelHandler.class);
 
+    private final String targetHost;
+    private final int targetPort;
+    private final TargetConnector connector;
+    private final HandshakeAdmission admission;
+    private final ServerDrain drain;
+
+    // UDP flow都转发到默认目标
+    public SharedServerQuicChannelHandler(String targetHost, int targetPort, TargetConnector connector,
+                                          HandshakeAdmission admission, ServerDrain drain) {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.connector = connector;
+        this.admission = admission;
+        this.drain = drain;
+    }
+
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
         logger.info("Server: quic connect channelRegistered.");
+        admission.handshakeStarted(ctx.channel());
         super.channelRegistered(ctx);
     }
 
@@ -24,6 +45,15 @@ public class SharedServerQuicChannelHandler extends ChannelInboundHandlerAdapter
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // QuicChannel上读到的ByteBuf是DATAGRAM帧
+        if (msg instanceof ByteBuf datagram) {
+            if (QuicDatagrams.isUdp(datagram)) {
+                UdpFlows.of((QuicChannel) ctx.channel(), targetHost, targetPort, connector).received(datagram);
+            } else {
+                datagram.release();
+            }
+            return;
+        }
         logger.info("Server: quic connect channelRead.");
         super.channelRead(ctx, msg);
     }
@@ -56,12 +86,16 @@ public class SharedServerQuicChannelHandler extends ChannelInboundHandlerAdapter
 
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         logger.info("Server: quic connect setup.");
+        admission.handshakeEnded(ctx.channel());
+        QuicStatsTracker.SERVER.track((QuicChannel) ctx.channel());
+        drain.connected((QuicChannel) ctx.channel());
         super.channelActive(ctx);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         logger.info("Server: quic connect closed.");
+        admission.handshakeEnded(ctx.channel());
         super.channelInactive(ctx);
     }
 }
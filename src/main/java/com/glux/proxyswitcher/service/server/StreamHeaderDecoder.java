@@ -0,0 +1,41 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.common.ProxyErrorCodes;
+import com.glux.proxyswitcher.service.common.StreamCompressor;
+import com.glux.proxyswitcher.service.common.StreamDecompressor;
+import com.glux.proxyswitcher.service.common.StreamHeader;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+
+import java.util.List;
+
+// 解析stream开头的StreamHeader，作为第一条消息交给QuicToTcpHandler，之后从pipeline中移除，其余数据原样传递。
+// 代理端请求压缩时在自己之后加入解压器和压缩器
+public class StreamHeaderDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        StreamHeader header;
+        try {
+            header = StreamHeader.decode(in);
+        } catch (IllegalArgumentException e) {
+            QuicToTcpHandler.logger.info("Server: bad stream header: {}", e.getMessage());
+            in.skipBytes(in.readableBytes());
+            ((QuicStreamChannel) ctx.channel()).shutdown(ProxyErrorCodes.BAD_STREAM_HEADER)
+                    .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        if (header != null) {
+            if (header.hasFlag(StreamHeader.FLAG_LZ4)) {
+                // 头之后的数据由解压器处理，服务端发回的数据同样分块压缩
+                ctx.pipeline().addAfter(ctx.name(), null, new StreamDecompressor())
+                        .addAfter(ctx.name(), null, new StreamCompressor());
+            }
+            out.add(header);
+            ctx.pipeline().remove(this);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.common.Forwarder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 建立到目标服务器的TCP连接，group为null时目标连接注册到stream所在的EventLoop上。
+// 配置了预连接池的目标优先使用池中的空闲连接
+public class TargetConnector {
+
+    private final EventLoopGroup group;
+    // 目标由代理端按stream指定，域名解析不能阻塞EventLoop，使用异步DNS解析(带缓存)
+    private final DnsAddressResolverGroup resolver;
+    private final Bootstrap bootstrap;
+    private final Bootstrap datagramBootstrap;
+    private final Map<String, TargetPool> pools = new ConcurrentHashMap<>();
+
+    public TargetConnector(EventLoopGroup group, Class<? extends SocketChannel> channelClass,
+                           Class<? extends DatagramChannel> datagramChannelClass) {
+        this.group = group;
+        this.resolver = new DnsAddressResolverGroup(datagramChannelClass,
+                DnsServerAddressStreamProviders.platformDefault());
+        this.bootstrap = new Bootstrap()
+                .channel(channelClass)
+                .resolver(resolver)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, Forwarder.WRITE_BUFFER_WATER_MARK);
+        this.datagramBootstrap = new Bootstrap()
+                .channel(datagramChannelClass)
+                .resolver(resolver);
+    }
+
+    // 为目标启用预连接池，poolGroup是池中连接注册的EventLoopGroup
+    public void enablePool(String host, int port, EventLoopGroup poolGroup) {
+        pools.computeIfAbsent(key(host, port), k -> new TargetPool(host, port, bootstrap, poolGroup));
+    }
+
+    // 返回的Future在stream所在的EventLoop上完成
+    public Future<Channel> connect(Channel streamChannel, String host, int port, ChannelHandler handler) {
+        Promise<Channel> promise = streamChannel.eventLoop().newPromise();
+        TargetPool pool = pools.get(key(host, port));
+        if (pool != null) {
+            Promise<Channel> pooled = streamChannel.eventLoop().newPromise();
+            if (pool.acquire(handler, pooled) != null) {
+                // 空闲连接在交接前刚好被关闭时改为新建连接
+                pooled.addListener(f -> {
+                    if (f.isSuccess()) {
+                        promise.trySuccess(pooled.getNow());
+                    } else {
+                        connectNew(bootstrap, streamChannel, host, port, handler, promise);
+                    }
+                });
+                return promise;
+            }
+        }
+        connectNew(bootstrap, streamChannel, host, port, handler, promise);
+        return promise;
+    }
+
+    // 建立连接到目标的UDP socket，不使用预连接池。返回的Future在quicChannel所在的EventLoop上完成
+    public Future<Channel> connectDatagram(Channel quicChannel, String host, int port, ChannelHandler handler) {
+        Promise<Channel> promise = quicChannel.eventLoop().newPromise();
+        connectNew(datagramBootstrap, quicChannel, host, port, handler, promise);
+        return promise;
+    }
+
+    private void connectNew(Bootstrap bootstrap, Channel streamChannel, String host, int port,
+                            ChannelHandler handler, Promise<Channel> promise) {
+        bootstrap.clone()
+                .group(group != null ? group : streamChannel.eventLoop())
+                .handler(handler)
+                .connect(host, port)
+                .addListener((ChannelFutureListener) f -> {
+                    if (f.isSuccess()) {
+                        promise.trySuccess(f.channel());
+                    } else {
+                        promise.tryFailure(f.cause());
+                    }
+                });
+    }
+
+    public void close() {
+        pools.values().forEach(TargetPool::close);
+        resolver.close();
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,231 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 到单个目标的预连接池。后台保持至少min条空闲连接，上一周期取用得多时最多补到max条；
+// 空闲超过maxIdleSeconds或已被对端关闭的连接不会被取出
+class TargetPool {
+
+    public static final int MIN_IDLE = Integer.getInteger("proxy.server.pool.min", 0);
+    public static final int MAX_IDLE = Math.max(MIN_IDLE, Integer.getInteger("proxy.server.pool.max", 4 * MIN_IDLE));
+    public static final long MAX_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("proxy.server.pool.maxIdleSeconds", 30));
+    // 空闲期间目标主动发送的数据(如SSH banner)先缓存，交给stream时再转发，超过该值的连接直接关闭
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024;
+    private static final long MAINTAIN_INTERVAL_MILLIS = 1000;
+
+    private static final Counter HITS = ProxyMetrics.counter("proxy_target_pool_acquires_total",
+            "Target connections requested from the pool", "result", "hit");
+    private static final Counter MISSES = ProxyMetrics.counter("proxy_target_pool_acquires_total",
+            "Target connections requested from the pool", "result", "miss");
+
+    private final String host;
+    private final int port;
+    private final Bootstrap bootstrap;
+    // 最新的连接在尾部，从尾部取用，最旧的在头部等待过期
+    private final ConcurrentLinkedDeque<IdleHandler> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger connecting = new AtomicInteger();
+    private final AtomicInteger acquired = new AtomicInteger();
+    private final ScheduledFuture<?> maintainTask;
+    private volatile int target = MIN_IDLE;
+    // 最近一次预连接失败后，直到下一个维护周期都不再补充，避免目标不可用时反复连接
+    private volatile boolean failing;
+
+    TargetPool(String host, int port, Bootstrap bootstrap, EventLoopGroup group) {
+        this.host = host;
+        this.port = port;
+        this.bootstrap = bootstrap.clone()
+                .group(group)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new IdleHandler());
+                    }
+                });
+        ProxyMetrics.gauge("proxy_target_pool_idle", "Idle pre-connected target connections", idleCount::get,
+                "target", host + ":" + port);
+        maintainTask = group.next().scheduleAtFixedRate(this::maintain,
+                0, MAINTAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // 取出一条可用的空闲连接并安装handler，没有时返回null
+    Future<Channel> acquire(ChannelHandler handler, Promise<Channel> promise) {
+        acquired.incrementAndGet();
+        long now = System.currentTimeMillis();
+        IdleHandler connection;
+        while ((connection = idle.pollLast()) != null) {
+            idleCount.decrementAndGet();
+            if (connection.usable(now)) {
+                HITS.increment();
+                refill();
+                return connection.handOff(handler, promise);
+            }
+            connection.channel.close();
+        }
+        MISSES.increment();
+        refill();
+        return null;
+    }
+
+    void close() {
+        maintainTask.cancel(false);
+        IdleHandler connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            connection.channel.close();
+        }
+    }
+
+    // 清理过期连接，并按上一周期的取用量调整要保持的空闲连接数
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        for (Iterator<IdleHandler> it = idle.iterator(); it.hasNext(); ) {
+            IdleHandler connection = it.next();
+            if (!connection.usable(now) && idle.remove(connection)) {
+                idleCount.decrementAndGet();
+                connection.channel.close();
+            }
+        }
+        target = Math.min(MAX_IDLE, Math.max(MIN_IDLE, acquired.getAndSet(0)));
+        failing = false;
+        refill();
+    }
+
+    private void refill() {
+        while (!failing && reserve()) {
+            bootstrap.connect(host, port).addListener((ChannelFutureListener) f -> {
+                // 先计入空闲再释放名额，其他线程不会看到两边都没有计入的瞬间
+                try {
+                    if (!f.isSuccess()) {
+                        failing = true;
+                        return;
+                    }
+                    IdleHandler connection = f.channel().pipeline().get(IdleHandler.class);
+                    if (connection == null) {
+                        f.channel().close();
+                        return;
+                    }
+                    idle.addLast(connection);
+                    idleCount.incrementAndGet();
+                    f.channel().closeFuture().addListener(cf -> {
+                        if (idle.remove(connection)) {
+                            idleCount.decrementAndGet();
+                        }
+                    });
+                } finally {
+                    connecting.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    // acquire和maintain可能在不同线程上同时补充，先用CAS占用名额再发起连接，不会超过target
+    private boolean reserve() {
+        for (;;) {
+            int pending = connecting.get();
+            if (idleCount.get() + pending >= target) {
+                return false;
+            }
+            if (connecting.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // 空闲期间的pipeline，只在连接所在的EventLoop中访问buffered
+    private static final class IdleHandler extends ChannelInboundHandlerAdapter {
+        private final long createdAt = System.currentTimeMillis();
+        private Channel channel;
+        private ByteBuf buffered;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+        }
+
+        // 只检查连接是否仍打开和空闲时长。对端的FIN/RST在EventLoop处理后才反映到isActive()，
+        // 目标进程挂起但连接仍在的情况检查不到，由stream上的读写错误处理
+        boolean usable(long now) {
+            return channel.isActive() && now - createdAt < MAX_IDLE_MILLIS;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (!(msg instanceof ByteBuf buf)) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            if (buffered == null) {
+                buffered = ctx.alloc().buffer(buf.readableBytes());
+            }
+            if (buffered.readableBytes() + buf.readableBytes() > MAX_BUFFERED_BYTES) {
+                buf.release();
+                ctx.close();
+                return;
+            }
+            buffered.writeBytes(buf);
+            buf.release();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            releaseBuffered();
+        }
+
+        // 在连接的EventLoop中换上stream的handler，再把空闲期间收到的数据交给它
+        Future<Channel> handOff(ChannelHandler handler, Promise<Channel> promise) {
+            channel.eventLoop().execute(() -> {
+                if (!channel.isActive()) {
+                    releaseBuffered();
+                    promise.tryFailure(new ClosedChannelException());
+                    return;
+                }
+                ChannelHandlerContext ctx = channel.pipeline().context(this);
+                channel.pipeline().addLast(handler);
+                ByteBuf data = buffered;
+                buffered = null;
+                if (data != null) {
+                    ctx.fireChannelRead(data);
+                    ctx.fireChannelReadComplete();
+                }
+                channel.pipeline().remove(this);
+                promise.trySuccess(channel);
+            });
+            return promise;
+        }
+
+        private void releaseBuffered() {
+            if (buffered != null) {
+                buffered.release();
+                buffered = null;
+            }
+        }
+    }
+}
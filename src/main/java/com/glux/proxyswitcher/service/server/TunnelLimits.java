@@ -0,0 +1,139 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.common.ProxyErrorCodes;
+import com.glux.proxyswitcher.service.metrics.Counter;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.incubator.codec.quic.QuicStreamChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 服务端的隧道数、每个代理端的隧道数、正在连接目标的数量和每个代理端打开stream的速率限制，值为0表示不限制。
+// 超出限制的stream立即以OVERLOADED/RATE_LIMITED重置，不再排队等待目标连接
+public class TunnelLimits {
+
+    public static final int MAX_TUNNELS = Integer.getInteger("proxy.server.maxTunnels", 0);
+    public static final int MAX_TUNNELS_PER_CLIENT = Integer.getInteger("proxy.server.maxTunnelsPerClient", 0);
+    public static final int MAX_PENDING_CONNECTS = Integer.getInteger("proxy.server.maxPendingConnects", 0);
+    public static final double STREAM_RATE = Double.parseDouble(System.getProperty("proxy.server.streamRate", "0"));
+    public static final double STREAM_BURST = Double.parseDouble(
+            System.getProperty("proxy.server.streamBurst", String.valueOf(Math.max(1, STREAM_RATE * 2))));
+
+    private static final long IDLE_CLIENT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // stream关闭时父连接可能已经没有地址，记录获取时的代理端
+    private static final AttributeKey<Client> CLIENT = AttributeKey.valueOf(TunnelLimits.class, "client");
+
+    private static final Counter TUNNELS_REJECTED = rejected("tunnels");
+    private static final Counter CLIENT_TUNNELS_REJECTED = rejected("client_tunnels");
+    private static final Counter PENDING_REJECTED = rejected("pending_connects");
+    private static final Counter RATE_REJECTED = rejected("stream_rate");
+    private static final Counter DRAIN_REJECTED = rejected("draining");
+
+    private final AtomicInteger tunnels = new AtomicInteger();
+    private final AtomicInteger pendingConnects = new AtomicInteger();
+    private final Map<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    private volatile boolean draining;
+
+    public TunnelLimits() {
+        ProxyMetrics.gauge("proxy_pending_target_connects", "Target connects in progress", pendingConnects::get);
+    }
+
+    // 在executor上定期清理没有隧道的代理端
+    public void cleanup(EventExecutorGroup executor) {
+        executor.scheduleAtFixedRate(() -> {
+            long idleBefore = System.nanoTime() - IDLE_CLIENT_NANOS;
+            clients.values().removeIf(client -> client.tunnels.get() == 0 && client.lastActive - idleBefore < 0);
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    // 排空开始后所有新stream以DRAINING拒绝
+    void drain() {
+        draining = true;
+    }
+
+    int activeTunnels() {
+        return tunnels.get();
+    }
+
+    // 成功时返回0，之后必须调用releaseTunnel；失败时返回应使用的错误码
+    int acquireTunnel(QuicStreamChannel stream) {
+        if (draining) {
+            DRAIN_REJECTED.increment();
+            return ProxyErrorCodes.DRAINING;
+        }
+        Client client = client(stream);
+        client.lastActive = System.nanoTime();
+        if (client.streams != null && !client.streams.tryAcquire()) {
+            RATE_REJECTED.increment();
+            return ProxyErrorCodes.RATE_LIMITED;
+        }
+        if (!acquire(tunnels, MAX_TUNNELS)) {
+            TUNNELS_REJECTED.increment();
+            return ProxyErrorCodes.OVERLOADED;
+        }
+        if (!acquire(client.tunnels, MAX_TUNNELS_PER_CLIENT)) {
+            tunnels.decrementAndGet();
+            CLIENT_TUNNELS_REJECTED.increment();
+            return ProxyErrorCodes.OVERLOADED;
+        }
+        stream.attr(CLIENT).set(client);
+        return 0;
+    }
+
+    void releaseTunnel(QuicStreamChannel stream) {
+        Client client = stream.attr(CLIENT).getAndSet(null);
+        if (client != null) {
+            tunnels.decrementAndGet();
+            client.tunnels.decrementAndGet();
+        }
+    }
+
+    // 目标响应变慢时正在连接的数量会迅速增加，超过上限后新stream直接拒绝
+    boolean acquireConnect() {
+        if (acquire(pendingConnects, MAX_PENDING_CONNECTS)) {
+            return true;
+        }
+        PENDING_REJECTED.increment();
+        return false;
+    }
+
+    void releaseConnect() {
+        pendingConnects.decrementAndGet();
+    }
+
+    private static boolean acquire(AtomicInteger count, int limit) {
+        if (count.incrementAndGet() <= limit || limit <= 0) {
+            return true;
+        }
+        count.decrementAndGet();
+        return false;
+    }
+
+    private Client client(QuicStreamChannel stream) {
+        SocketAddress address = stream.parent().remoteSocketAddress();
+        InetAddress key = address instanceof InetSocketAddress inet ? inet.getAddress() : null;
+        if (key == null) {
+            key = InetAddress.getLoopbackAddress();
+        }
+        return clients.computeIfAbsent(key, k -> new Client());
+    }
+
+    private static Counter rejected(String reason) {
+        return ProxyMetrics.counter("proxy_rejected_total", "Tunnels rejected by overload limits",
+                "side", "server", "reason", reason);
+    }
+
+    private static final class Client {
+        private final AtomicInteger tunnels = new AtomicInteger();
+        private final TokenBucket streams = STREAM_RATE > 0 ? new TokenBucket(STREAM_RATE, STREAM_BURST) : null;
+        private volatile long lastActive = System.nanoTime();
+    }
+}
@@ -0,0 +1,183 @@
+package com.glux.proxyswitcher.service.server;
+
+import com.glux.proxyswitcher.service.common.QuicDatagrams;
+import com.glux.proxyswitcher.service.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.incubator.codec.quic.QuicChannel;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 一条QUIC连接上的UDP flow，每个flow使用一个连接到默认目标的UDP socket。只在QUIC连接的EventLoop中访问。
+// 每条连接和整个服务端的flow数有上限，超过后新flow的数据包直接丢弃，已有flow不受影响，值为0表示不限制
+class UdpFlows {
+    private static final AttributeKey<UdpFlows> KEY = AttributeKey.valueOf(UdpFlows.class, "flows");
+
+    static final int MAX_FLOWS = Integer.getInteger("proxy.udp.maxFlows", 256);
+    static final int MAX_FLOWS_TOTAL = Integer.getInteger("proxy.udp.maxFlowsTotal", 4096);
+    // UDP socket建立前每个flow最多缓存的数据包数
+    private static final int MAX_PENDING_PACKETS = 64;
+
+    // 所有连接上的flow数，flow在不同的EventLoop中打开和关闭
+    private static final AtomicInteger TOTAL = new AtomicInteger();
+
+    private final QuicChannel quicChannel;
+    private final String targetHost;
+    private final int targetPort;
+    private final TargetConnector connector;
+    private final IntObjectMap<Flow> flows = new IntObjectHashMap<>();
+
+    // 服务端所有连接上的UDP flow数
+    static int activeFlows() {
+        return TOTAL.get();
+    }
+
+    static UdpFlows of(QuicChannel quicChannel, String targetHost, int targetPort, TargetConnector connector) {
+        UdpFlows flows = quicChannel.attr(KEY).get();
+        if (flows == null) {
+            flows = new UdpFlows(quicChannel, targetHost, targetPort, connector);
+            quicChannel.attr(KEY).set(flows);
+        }
+        return flows;
+    }
+
+    private UdpFlows(QuicChannel quicChannel, String targetHost, int targetPort, TargetConnector connector) {
+        this.quicChannel = quicChannel;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.connector = connector;
+        long sweep = Math.max(1, QuicDatagrams.UDP_IDLE_SECONDS / 2);
+        ScheduledFuture<?> task = quicChannel.eventLoop().scheduleAtFixedRate(this::evictIdle,
+                sweep, sweep, TimeUnit.SECONDS);
+        quicChannel.closeFuture().addListener(f -> {
+            task.cancel(false);
+            for (Flow flow : flows.values()) {
+                flow.close();
+            }
+            flows.clear();
+        });
+    }
+
+    // datagram的所有权转交给本方法
+    void received(ByteBuf datagram) {
+        int flowId = QuicDatagrams.udpFlowId(datagram);
+        Flow flow = flows.get(flowId);
+        if (flow == null) {
+            flow = open(flowId);
+            if (flow == null) {
+                datagram.release();
+                ProxyMetrics.SERVER_UDP_FLOW_LIMIT_DROPPED.increment();
+                return;
+            }
+        }
+        flow.lastActive = System.nanoTime();
+        ByteBuf payload = QuicDatagrams.udpPayload(datagram);
+        ProxyMetrics.SERVER_BYTES_UPSTREAM.add(payload.readableBytes());
+        Future<Channel> target = flow.target;
+        if (target.isDone()) {
+            send(target, payload);
+        } else if (flow.pending < MAX_PENDING_PACKETS) {
+            Flow pendingFlow = flow;
+            pendingFlow.pending++;
+            target.addListener(f -> {
+                pendingFlow.pending--;
+                send(target, payload);
+            });
+        } else {
+            payload.release();
+            ProxyMetrics.SERVER_UDP_PENDING_DROPPED.increment();
+        }
+    }
+
+    // 超过flow数上限时返回null
+    private Flow open(int flowId) {
+        if (MAX_FLOWS > 0 && flows.size() >= MAX_FLOWS) {
+            return null;
+        }
+        if (TOTAL.incrementAndGet() > MAX_FLOWS_TOTAL && MAX_FLOWS_TOTAL > 0) {
+            TOTAL.decrementAndGet();
+            return null;
+        }
+        Flow flow = new Flow();
+        flow.target = connector.connectDatagram(quicChannel, targetHost, targetPort,
+                new SimpleChannelInboundHandler<DatagramPacket>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                        flow.lastActive = System.nanoTime();
+                        ByteBuf payload = packet.content().retain();
+                        ProxyMetrics.SERVER_BYTES_DOWNSTREAM.add(payload.readableBytes());
+                        quicChannel.writeAndFlush(QuicDatagrams.udp(quicChannel.alloc(), flowId, payload))
+                                .addListener(f -> {
+                                    if (!f.isSuccess()) {
+                                        ProxyMetrics.SERVER_UDP_DROPPED.increment();
+                                    }
+                                });
+                    }
+                });
+        // 连接失败时移除flow，下一个数据包重新尝试
+        flow.target.addListener(f -> {
+            if (!f.isSuccess() && flows.get(flowId) == flow) {
+                flows.remove(flowId);
+                TOTAL.decrementAndGet();
+                ProxyMetrics.SERVER_UDP_FLOWS.decrement();
+            }
+        });
+        flows.put(flowId, flow);
+        ProxyMetrics.SERVER_UDP_FLOWS.increment();
+        return flow;
+    }
+
+    private static void send(Future<Channel> target, ByteBuf payload) {
+        if (!target.isSuccess()) {
+            payload.release();
+            ProxyMetrics.SERVER_UDP_DROPPED.increment();
+            return;
+        }
+        target.getNow().writeAndFlush(payload).addListener(f -> {
+            if (!f.isSuccess()) {
+                ProxyMetrics.SERVER_UDP_DROPPED.increment();
+            }
+        });
+    }
+
+    private void evictIdle() {
+        long idleBefore = System.nanoTime() - TimeUnit.SECONDS.toNanos(QuicDatagrams.UDP_IDLE_SECONDS);
+        List<Integer> idle = new ArrayList<>();
+        for (IntObjectMap.PrimitiveEntry<Flow> entry : flows.entries()) {
+            if (entry.value().lastActive - idleBefore < 0) {
+                idle.add(entry.key());
+            }
+        }
+        for (int flowId : idle) {
+            flows.remove(flowId).close();
+        }
+    }
+
+    private static final class Flow {
+        private Future<Channel> target;
+        private int pending;
+        // 目标的回包在UDP socket的EventLoop中更新
+        private volatile long lastActive;
+
+        void close() {
+            TOTAL.decrementAndGet();
+            ProxyMetrics.SERVER_UDP_FLOWS.decrement();
+            target.addListener(f -> {
+                if (f.isSuccess()) {
+                    ((Channel) f.getNow()).close();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamCompressorTest {
+
+    private static final int MAX_BLOCK = StreamCompressor.MAX_BLOCK;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, MAX_BLOCK - 1, MAX_BLOCK, MAX_BLOCK + 1, 3 * MAX_BLOCK + 7})
+    void compressibleRoundTrip(int length) {
+        byte[] data = text(length);
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), data);
+        if (length > 16) {
+            assertEquals(StreamCompressor.TYPE_LZ4, encoded.getUnsignedByte(0));
+        }
+        assertArrayEquals(data, decompress(new RecordingDecompressor(), encoded));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, MAX_BLOCK - 1, MAX_BLOCK, MAX_BLOCK + 1, 3 * MAX_BLOCK + 7})
+    void incompressibleRoundTrip(int length) {
+        byte[] data = random(length, length);
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), data);
+        assertArrayEquals(data, decompress(new RecordingDecompressor(), encoded));
+    }
+
+    @Test
+    void incompressibleBlockFallsBackToRaw() {
+        byte[] data = random(1000, 1);
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), data);
+        assertEquals(StreamCompressor.RAW_HEADER_LENGTH + data.length, encoded.readableBytes());
+        assertEquals(StreamCompressor.TYPE_RAW, encoded.getUnsignedByte(0));
+        assertEquals(data.length, encoded.getUnsignedMedium(1));
+    }
+
+    @Test
+    void blocksNeverExceedMaxBlock() {
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), random(2 * MAX_BLOCK + 1, 2));
+        int blocks = 0;
+        while (encoded.isReadable()) {
+            int type = encoded.readUnsignedByte();
+            int length = encoded.readUnsignedMedium();
+            assertEquals(StreamCompressor.TYPE_RAW, type);
+            assertTrue(length <= MAX_BLOCK);
+            encoded.skipBytes(length);
+            blocks++;
+        }
+        assertEquals(3, blocks);
+    }
+
+    @Test
+    void samplingStopsCompressingIncompressibleStreams() {
+        EmbeddedChannel compressor = new EmbeddedChannel(new StreamCompressor());
+        compress(compressor, random(StreamCompressor.SAMPLE_BYTES, 3));
+        // 采样后即使数据可以压缩也只发送原始块
+        ByteBuf encoded = compress(compressor, text(4096));
+        assertEquals(StreamCompressor.TYPE_RAW, encoded.getUnsignedByte(0));
+        assertEquals(StreamCompressor.RAW_HEADER_LENGTH + 4096, encoded.readableBytes());
+    }
+
+    @Test
+    void samplingKeepsCompressingCompressibleStreams() {
+        EmbeddedChannel compressor = new EmbeddedChannel(new StreamCompressor());
+        compress(compressor, text(StreamCompressor.SAMPLE_BYTES));
+        assertEquals(StreamCompressor.TYPE_LZ4, compress(compressor, text(4096)).getUnsignedByte(0));
+    }
+
+    @Test
+    void blocksSplitAcrossReadsAreReassembled() {
+        byte[] data = text(10_000);
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), data);
+        RecordingDecompressor decompressor = new RecordingDecompressor();
+        EmbeddedChannel channel = new EmbeddedChannel(decompressor);
+        while (encoded.isReadable()) {
+            channel.writeInbound(encoded.readRetainedSlice(Math.min(3, encoded.readableBytes())));
+        }
+        encoded.release();
+        assertArrayEquals(data, readInbound(channel));
+        assertEquals(-1, decompressor.errorCode);
+    }
+
+    @Test
+    void unknownBlockTypeResetsStream() {
+        assertRejected(Unpooled.wrappedBuffer(new byte[]{5, 0, 0, 1, 0}));
+    }
+
+    @Test
+    void oversizeRawBlockResetsStream() {
+        assertRejected(Unpooled.buffer().writeByte(StreamCompressor.TYPE_RAW).writeMedium(MAX_BLOCK + 1));
+    }
+
+    @Test
+    void oversizeLz4BlockResetsStream() {
+        assertRejected(Unpooled.buffer().writeByte(StreamCompressor.TYPE_LZ4).writeMedium(MAX_BLOCK)
+                .writeMedium(MAX_BLOCK));
+    }
+
+    @Test
+    void oversizeOriginalLengthResetsStream() {
+        ByteBuf block = lz4Block(text(1000));
+        block.setMedium(4, MAX_BLOCK + 1);
+        assertRejected(block);
+    }
+
+    @Test
+    void zeroOriginalLengthResetsStream() {
+        ByteBuf block = lz4Block(text(1000));
+        block.setMedium(4, 0);
+        assertRejected(block);
+    }
+
+    @Test
+    void wrongOriginalLengthResetsStream() {
+        ByteBuf shorter = lz4Block(text(1000));
+        shorter.setMedium(4, 999);
+        assertRejected(shorter);
+        ByteBuf longer = lz4Block(text(1000));
+        longer.setMedium(4, 1001);
+        assertRejected(longer);
+    }
+
+    @Test
+    void malformedLz4DataResetsStream() {
+        assertRejected(Unpooled.buffer().writeByte(StreamCompressor.TYPE_LZ4).writeMedium(4).writeMedium(16)
+                .writeInt(0xffffffff));
+    }
+
+    @Test
+    void truncatedBlockAtEndOfStreamResetsStream() {
+        ByteBuf block = lz4Block(text(1000));
+        block.writerIndex(block.writerIndex() - 1);
+        RecordingDecompressor decompressor = new RecordingDecompressor();
+        EmbeddedChannel channel = new EmbeddedChannel(decompressor);
+        channel.writeInbound(block);
+        assertEquals(-1, decompressor.errorCode);
+        channel.finish();
+        assertEquals(ProxyErrorCodes.BAD_COMPRESSED_BLOCK, decompressor.errorCode);
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    void inputAfterFailureIsDiscarded() {
+        RecordingDecompressor decompressor = new RecordingDecompressor();
+        EmbeddedChannel channel = new EmbeddedChannel(decompressor);
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{5, 0, 0, 1, 0}));
+        channel.writeInbound(compress(new EmbeddedChannel(new StreamCompressor()), text(100)));
+        assertNull(channel.readInbound());
+        assertEquals(ProxyErrorCodes.BAD_COMPRESSED_BLOCK, decompressor.errorCode);
+    }
+
+    private static void assertRejected(ByteBuf input) {
+        RecordingDecompressor decompressor = new RecordingDecompressor();
+        EmbeddedChannel channel = new EmbeddedChannel(decompressor);
+        channel.writeInbound(input);
+        assertEquals(ProxyErrorCodes.BAD_COMPRESSED_BLOCK, decompressor.errorCode);
+        assertNull(channel.readInbound());
+        channel.finishAndReleaseAll();
+    }
+
+    private static ByteBuf lz4Block(byte[] data) {
+        ByteBuf encoded = compress(new EmbeddedChannel(new StreamCompressor()), data);
+        assertEquals(StreamCompressor.TYPE_LZ4, encoded.getUnsignedByte(0));
+        return encoded;
+    }
+
+    private static ByteBuf compress(EmbeddedChannel compressor, byte[] data) {
+        compressor.writeOutbound(Unpooled.wrappedBuffer(data));
+        ByteBuf out = Unpooled.buffer();
+        ByteBuf encoded;
+        while ((encoded = compressor.readOutbound()) != null) {
+            out.writeBytes(encoded);
+            encoded.release();
+        }
+        return out;
+    }
+
+    private static byte[] decompress(RecordingDecompressor decompressor, ByteBuf encoded) {
+        EmbeddedChannel channel = new EmbeddedChannel(decompressor);
+        channel.writeInbound(encoded);
+        byte[] data = readInbound(channel);
+        assertEquals(-1, decompressor.errorCode);
+        return data;
+    }
+
+    private static byte[] readInbound(EmbeddedChannel channel) {
+        ByteBuf out = Unpooled.buffer();
+        ByteBuf block;
+        while ((block = channel.readInbound()) != null) {
+            out.writeBytes(block);
+            block.release();
+        }
+        byte[] data = new byte[out.readableBytes()];
+        out.readBytes(data);
+        return data;
+    }
+
+    private static byte[] text(int length) {
+        byte[] pattern = "GET /index.html HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+        return data;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // 记录重置的错误码，EmbeddedChannel不是QuicStreamChannel
+    private static final class RecordingDecompressor extends StreamDecompressor {
+        private int errorCode = -1;
+
+        @Override
+        void reset(ChannelHandlerContext ctx, int errorCode) {
+            this.errorCode = errorCode;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.glux.proxyswitcher.service.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamHeaderTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"10.0.0.1", "2001:db8::1", "example.com"})
+    void roundTrip(String host) {
+        StreamHeader header = StreamHeader.of(host, 8443)
+                .withFlags(StreamHeader.FLAG_LZ4)
+                .withTrafficClass(TrafficClass.BULK);
+        ByteBuf buf = encode(header);
+        buf.writeByte(0x7f);
+        StreamHeader decoded = StreamHeader.decode(buf);
+        assertNotNull(decoded);
+        assertEquals(host, decoded.host());
+        assertEquals(8443, decoded.port());
+        assertTrue(decoded.hasFlag(StreamHeader.FLAG_LZ4));
+        assertEquals(TrafficClass.BULK, decoded.trafficClass());
+        // 头之后的数据保留给后面的handler
+        assertEquals(1, buf.readableBytes());
+        assertEquals(0x7f, buf.readUnsignedByte());
+    }
+
+    @Test
+    void defaultTargetRoundTrip() {
+        ByteBuf buf = encode(StreamHeader.defaultTarget());
+        assertEquals(3, buf.readableBytes());
+        StreamHeader decoded = StreamHeader.decode(buf);
+        assertNotNull(decoded);
+        assertTrue(decoded.isDefaultTarget());
+        assertFalse(buf.isReadable());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"10.0.0.1", "2001:db8::1", "example.com"})
+    void truncatedHeaderWaitsForMoreData(String host) {
+        ByteBuf full = encode(StreamHeader.of(host, 80));
+        for (int length = 0; length < full.readableBytes(); length++) {
+            ByteBuf partial = full.slice(0, length);
+            assertNull(StreamHeader.decode(partial), "length " + length);
+            assertEquals(0, partial.readerIndex());
+        }
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        ByteBuf buf = Unpooled.buffer().writeByte(StreamHeader.VERSION + 1).writeByte(0).writeByte(0);
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.decode(buf));
+    }
+
+    @Test
+    void unknownAddressTypeIsRejected() {
+        ByteBuf buf = Unpooled.buffer().writeByte(StreamHeader.VERSION).writeByte(0).writeByte(2);
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.decode(buf));
+    }
+
+    @Test
+    void emptyDomainIsRejected() {
+        ByteBuf buf = Unpooled.buffer().writeByte(StreamHeader.VERSION).writeByte(0).writeByte(3).writeByte(0)
+                .writeShort(80);
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.decode(buf));
+    }
+
+    @Test
+    void unknownTrafficClassFallsBackToDefault() {
+        ByteBuf buf = Unpooled.buffer().writeByte(StreamHeader.VERSION).writeByte(0x0c).writeByte(0);
+        StreamHeader decoded = StreamHeader.decode(buf);
+        assertNotNull(decoded);
+        assertEquals(TrafficClass.DEFAULT, decoded.trafficClass());
+    }
+
+    @Test
+    void invalidTargetsAreRejectedWhenBuilding() {
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.of("", 80));
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.of("a".repeat(256), 80));
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.of("example.com", 0));
+        assertThrows(IllegalArgumentException.class, () -> StreamHeader.of("example.com", 65536));
+    }
+
+    private static ByteBuf encode(StreamHeader header) {
+        ByteBuf buf = Unpooled.buffer();
+        header.encode(buf);
+        return buf;
+    }
+}
@@ -0,0 +1,89 @@
+package com.glux.proxyswitcher.service.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import static com.glux.proxyswitcher.service.server.ConnectionHandoff.GENERATION;
+import static com.glux.proxyswitcher.service.server.ConnectionHandoff.owner;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConnectionHandoffTest {
+
+    private static final int CID_LENGTH = 8;
+    private static final int INITIAL = 0xc0;
+    private static final int ZERO_RTT = 0xd0;
+    private static final int HANDSHAKE = 0xe0;
+
+    @Test
+    void shortHeaderOwnerIsLastByteOfDcid() {
+        ByteBuf packet = Unpooled.buffer().writeByte(0x40).writeBytes(cid(7)).writeZero(20);
+        assertEquals(7, owner(packet, CID_LENGTH, false));
+        assertEquals(7, owner(packet, CID_LENGTH, true));
+    }
+
+    @Test
+    void shortHeaderShorterThanDcidHasNoOwner() {
+        ByteBuf packet = Unpooled.buffer().writeByte(0x40).writeBytes(cid(7), 0, CID_LENGTH - 1);
+        assertEquals(-1, owner(packet, CID_LENGTH, false));
+    }
+
+    @Test
+    void handshakeOwnerIsLastByteOfDcid() {
+        assertEquals(9, owner(longHeader(HANDSHAKE, 1, cid(9)), CID_LENGTH, false));
+    }
+
+    @Test
+    void handshakeWithForeignDcidLengthHasNoOwner() {
+        ByteBuf dcid = Unpooled.buffer().writeZero(CID_LENGTH + 1);
+        assertEquals(-1, owner(longHeader(HANDSHAKE, 1, dcid), CID_LENGTH, false));
+    }
+
+    @Test
+    void truncatedLongHeaderHasNoOwner() {
+        ByteBuf packet = longHeader(HANDSHAKE, 1, cid(9));
+        assertEquals(-1, owner(packet.slice(0, 6 + CID_LENGTH - 1), CID_LENGTH, false));
+        assertEquals(-1, owner(packet.slice(0, 5), CID_LENGTH, false));
+    }
+
+    @Test
+    void otherVersionsHaveNoOwner() {
+        // 版本协商包的版本号是0
+        assertEquals(-1, owner(longHeader(HANDSHAKE, 0, cid(9)), CID_LENGTH, true));
+        assertEquals(-1, owner(longHeader(HANDSHAKE, 2, cid(9)), CID_LENGTH, true));
+    }
+
+    @Test
+    void newConnectionsStayWhenNotDraining() {
+        assertEquals(-1, owner(longHeader(INITIAL, 1, cid(9)), CID_LENGTH, false));
+        assertEquals(-1, owner(longHeader(ZERO_RTT, 1, cid(9)), CID_LENGTH, false));
+    }
+
+    @Test
+    void newConnectionsGoToOtherGenerationWhenDraining() {
+        assertEquals(GENERATION ^ 1, owner(longHeader(INITIAL, 1, cid(9)), CID_LENGTH, true));
+        assertEquals(GENERATION ^ 1, owner(longHeader(ZERO_RTT, 1, cid(9)), CID_LENGTH, true));
+    }
+
+    @Test
+    void emptyPacketHasNoOwner() {
+        assertEquals(-1, owner(Unpooled.EMPTY_BUFFER, CID_LENGTH, true));
+    }
+
+    @Test
+    void readerIndexIsHonoured() {
+        ByteBuf packet = Unpooled.buffer().writeZero(3).writeBytes(longHeader(HANDSHAKE, 1, cid(9)));
+        packet.skipBytes(3);
+        assertEquals(9, owner(packet, CID_LENGTH, false));
+    }
+
+    private static ByteBuf longHeader(int flags, int version, ByteBuf dcid) {
+        return Unpooled.buffer().writeByte(flags).writeInt(version).writeByte(dcid.readableBytes()).writeBytes(dcid)
+                .writeByte(0).writeZero(20);
+    }
+
+    // 连接ID最后一个字节是generation
+    private static ByteBuf cid(int generation) {
+        return Unpooled.buffer().writeBytes(new byte[]{1, 2, 3, 4, 5, 6, 7}).writeByte(generation);
+    }
+}
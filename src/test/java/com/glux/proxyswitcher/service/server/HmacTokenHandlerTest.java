@@ -0,0 +1,119 @@
+package com.glux.proxyswitcher.service.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HmacTokenHandlerTest {
+
+    private static final int HEADER_LENGTH = 25;
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("192.0.2.1", 50000);
+
+    private final HmacTokenHandler handler = new HmacTokenHandler(() -> true);
+
+    @Test
+    void validTokenReturnsOffsetOfOriginalDcid() {
+        ByteBuf dcid = dcid(8);
+        ByteBuf token = token(handler, dcid, CLIENT);
+        assertEquals(HEADER_LENGTH + 8, token.readableBytes());
+        assertEquals(HEADER_LENGTH, handler.validateToken(token, CLIENT));
+        assertEquals(dcid, token.slice(HEADER_LENGTH, 8));
+    }
+
+    @Test
+    void maxLengthDcidIsAccepted() {
+        ByteBuf token = token(handler, dcid(20), CLIENT);
+        assertEquals(handler.maxTokenLength(), token.readableBytes());
+        assertEquals(HEADER_LENGTH, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void tokenIsBoundToClientAddress() {
+        ByteBuf token = token(handler, dcid(8), CLIENT);
+        assertEquals(-1, handler.validateToken(token, new InetSocketAddress("192.0.2.2", 50000)));
+        assertEquals(-1, handler.validateToken(token, new InetSocketAddress("192.0.2.1", 50001)));
+    }
+
+    @Test
+    void tamperedMacIsRejected() {
+        ByteBuf token = token(handler, dcid(8), CLIENT);
+        token.setByte(9, token.getByte(9) ^ 1);
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void tamperedDcidIsRejected() {
+        ByteBuf token = token(handler, dcid(8), CLIENT);
+        token.setByte(HEADER_LENGTH, token.getByte(HEADER_LENGTH) ^ 1);
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void tamperedExpiryIsRejected() {
+        ByteBuf token = token(handler, dcid(8), CLIENT);
+        token.setLong(1, token.getLong(1) + 1);
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void unknownKeyIdIsRejected() {
+        ByteBuf token = token(handler, dcid(8), CLIENT);
+        token.setByte(0, 2);
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void tokenFromAnotherServerIsRejected() {
+        ByteBuf token = token(new HmacTokenHandler(() -> true), dcid(8), CLIENT);
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        ByteBuf token = Unpooled.buffer().writeByte(0).writeLong(System.currentTimeMillis() - 1)
+                .writeZero(16).writeBytes(dcid(8));
+        assertEquals(-1, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void badLengthIsRejected() {
+        assertEquals(-1, handler.validateToken(Unpooled.buffer().writeZero(HEADER_LENGTH - 1), CLIENT));
+        ByteBuf tooLong = token(handler, dcid(20), CLIENT).writeByte(0);
+        assertEquals(-1, handler.validateToken(tooLong, CLIENT));
+    }
+
+    @Test
+    void validationHonoursReaderIndex() {
+        ByteBuf token = Unpooled.buffer().writeZero(3);
+        assertTrue(handler.writeToken(token, dcid(8), CLIENT));
+        token.skipBytes(3);
+        assertEquals(HEADER_LENGTH, handler.validateToken(token, CLIENT));
+    }
+
+    @Test
+    void noTokenIsWrittenWhenRetryIsNotRequired() {
+        ByteBuf token = Unpooled.buffer();
+        assertFalse(new HmacTokenHandler(() -> false).writeToken(token, dcid(8), CLIENT));
+        assertEquals(0, token.readableBytes());
+    }
+
+    private static ByteBuf token(HmacTokenHandler handler, ByteBuf dcid, InetSocketAddress address) {
+        ByteBuf token = Unpooled.buffer();
+        assertTrue(handler.writeToken(token, dcid, address));
+        return token;
+    }
+
+    private static ByteBuf dcid(int length) {
+        ByteBuf dcid = Unpooled.buffer(length);
+        for (int i = 0; i < length; i++) {
+            dcid.writeByte(0x40 + i);
+        }
+        return dcid;
+    }
+}